@@ -2,6 +2,7 @@ package com.tomaz.boomslime;
 
 import com.tomaz.boomslime.commands.CommandManager;
 import com.tomaz.boomslime.config.BotConfig;
+import com.tomaz.boomslime.music.PlayerManager;
 import com.tomaz.boomslime.music.SpotifyDownloader;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
@@ -30,6 +31,7 @@ public class BoomslimeBot {
                 .build();
 
         jda.awaitReady();
+        PlayerManager.getInstance().restoreSessions(jda);
         System.out.println("✅ Bot online! Ctrl+C para parar.");
     }
 }
\ No newline at end of file
@@ -6,6 +6,9 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import com.tomaz.boomslime.config.BotConfig;
 import com.tomaz.boomslime.music.GuildMusicManager;
 import com.tomaz.boomslime.music.PlayerManager;
+import com.tomaz.boomslime.music.QueuedTrack;
+import com.tomaz.boomslime.music.TrackQueue;
+import com.tomaz.boomslime.util.Metrics;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.GuildVoiceState;
 import net.dv8tion.jda.api.entities.Member;
@@ -17,7 +20,7 @@ import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import java.awt.Color;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class CommandManager extends ListenerAdapter {
@@ -30,20 +33,20 @@ public class CommandManager extends ListenerAdapter {
             GuildMusicManager musicManager = PlayerManager.getInstance().getMusicManager(event.getGuild());
             AudioPlayer player = musicManager.getAudioPlayer();
             AudioTrack currentTrack = player.getPlayingTrack();
+            TrackQueue.Snapshot queue = musicManager.getScheduler().getQueue();
 
-            if (currentTrack == null) {
+            if (currentTrack == null && queue.isEmpty()) {
                 event.reply("There is no song playing now.").setEphemeral(true).queue();
                 return;
             }
 
-            List<AudioTrack> queue = musicManager.getScheduler().getQueue();
             int page = Integer.parseInt(buttonId.substring(buttonId.lastIndexOf("_") + 1));
 
             updateQueuePage(event, currentTrack, queue, page);
         }
     }
 
-    private void updateQueuePage(ButtonInteractionEvent event, AudioTrack currentTrack, List<AudioTrack> queue, int page) {
+    private void updateQueuePage(ButtonInteractionEvent event, AudioTrack currentTrack, TrackQueue.Snapshot queue, int page) {
         final int TRACKS_PER_PAGE = 10;
         int totalPages = (int) Math.ceil((double) queue.size() / TRACKS_PER_PAGE);
 
@@ -55,17 +58,7 @@ public class CommandManager extends ListenerAdapter {
         embed.setColor(Color.MAGENTA);
         embed.setTitle("\uD83C\uDFB5  Actual queue");
 
-        AudioTrackInfo info = currentTrack.getInfo();
-        long position = currentTrack.getPosition();
-        long duration = currentTrack.getDuration();
-
-        embed.addField("▶\uFE0F  Currently playing:",
-                String.format("**%s** - **%s**\n[%s / %s]",
-                        info.title,
-                        info.author,
-                        formatTime(position),
-                        formatTime(duration)),
-                false);
+        embed.addField("▶\uFE0F  Currently playing:", nowPlaying(currentTrack), false);
 
         if (queue.isEmpty()) {
             embed.addField("Song list:", "The queue is empty.", false);
@@ -75,12 +68,7 @@ public class CommandManager extends ListenerAdapter {
             int end = Math.min(start + TRACKS_PER_PAGE, queue.size());
 
             for (int i = start; i < end; i++) {
-                AudioTrack track = queue.get(i);
-                queueString.append(String.format("%d. **%s** - **%s** [%s]\n",
-                        i + 1,
-                        track.getInfo().title,
-                        track.getInfo().author,
-                        formatTime(track.getDuration())));
+                queueString.append(queueLine(queue, i));
             }
 
             embed.addField("Next queue songs (" + queue.size() + ") - Page " + (page + 1) + "/" + totalPages,
@@ -149,6 +137,9 @@ public class CommandManager extends ListenerAdapter {
                 case "embaralhar":
                     handleShuffleCommand(event);
                     break;
+                case "stats":
+                    handleStatsCommand(event);
+                    break;
                 case "help":
                 case "ajuda":
                     handleHelpCommand(event);
@@ -182,18 +173,17 @@ public class CommandManager extends ListenerAdapter {
         GuildMusicManager musicManager = PlayerManager.getInstance().getMusicManager(event.getGuild());
         AudioPlayer player = musicManager.getAudioPlayer();
         AudioTrack currentTrack = player.getPlayingTrack();
+        TrackQueue.Snapshot queue = musicManager.getScheduler().getQueue();
 
-        if (currentTrack == null) {
+        if (currentTrack == null && queue.isEmpty()) {
             channel.sendMessage("> There is no song playing now.").queue();
             return;
         }
 
-        List<AudioTrack> queue = musicManager.getScheduler().getQueue();
-
         sendQueuePage(event, currentTrack, queue, 0);
     }
 
-    private void sendQueuePage(MessageReceivedEvent event, AudioTrack currentTrack, List<AudioTrack> queue, int page) {
+    private void sendQueuePage(MessageReceivedEvent event, AudioTrack currentTrack, TrackQueue.Snapshot queue, int page) {
         final int TRACKS_PER_PAGE = 10;
         int totalPages = (int) Math.ceil((double) queue.size() / TRACKS_PER_PAGE);
 
@@ -205,17 +195,7 @@ public class CommandManager extends ListenerAdapter {
         embed.setColor(Color.MAGENTA);
         embed.setTitle("\uD83C\uDFB5  Actual queue");
 
-        AudioTrackInfo info = currentTrack.getInfo();
-        long position = currentTrack.getPosition();
-        long duration = currentTrack.getDuration();
-
-        embed.addField("Currently playing:",
-                String.format("**%s** - **%s**\n[%s / %s]",
-                        info.title,
-                        info.author,
-                        formatTime(position),
-                        formatTime(duration)),
-                false);
+        embed.addField("Currently playing:", nowPlaying(currentTrack), false);
 
         if (queue.isEmpty()) {
             embed.addField("Song list:", "The queue is empty.", false);
@@ -225,12 +205,7 @@ public class CommandManager extends ListenerAdapter {
             int end = Math.min(start + TRACKS_PER_PAGE, queue.size());
 
             for (int i = start; i < end; i++) {
-                AudioTrack track = queue.get(i);
-                queueString.append(String.format("%d. **%s** - **%s** [%s]\n",
-                        i + 1,
-                        track.getInfo().title,
-                        track.getInfo().author,
-                        formatTime(track.getDuration())));
+                queueString.append(queueLine(queue, i));
             }
 
             embed.addField("Next queue songs (" + queue.size() + ") - Page " + (page + 1) + "/" + totalPages,
@@ -250,6 +225,32 @@ public class CommandManager extends ListenerAdapter {
             .queue();
     }
 
+    private String nowPlaying(AudioTrack currentTrack) {
+        if (currentTrack == null) {
+            return "Nothing yet.";
+        }
+
+        AudioTrackInfo info = currentTrack.getInfo();
+        return String.format("**%s** - **%s**\n[%s / %s]",
+                info.title,
+                info.author,
+                formatTime(currentTrack.getPosition()),
+                formatTime(currentTrack.getDuration()));
+    }
+
+    /**
+     * Linha da fila; a entrada que está baixando para tocar em seguida aparece marcada.
+     */
+    private String queueLine(TrackQueue.Snapshot queue, int index) {
+        QueuedTrack track = queue.get(index);
+        return String.format("%d. **%s** - **%s** [%s]%s\n",
+                index + 1,
+                track.getTitle(),
+                track.getAuthor(),
+                formatTime(track.getDuration()),
+                track == queue.getPending() ? " - up next (downloading)" : "");
+    }
+
     private void handleSkipCommand(MessageReceivedEvent event) {
         MessageChannel channel = event.getChannel();
 
@@ -410,9 +411,7 @@ public class CommandManager extends ListenerAdapter {
         }
 
         GuildMusicManager musicManager = PlayerManager.getInstance().getMusicManager(event.getGuild());
-        List<AudioTrack> queue = musicManager.getScheduler().getQueue();
-
-        if (queue.isEmpty()) {
+        if (musicManager.getScheduler().getQueueSize() == 0) {
             channel.sendMessage("> The queue is empty.").queue();
             return;
         }
@@ -421,6 +420,32 @@ public class CommandManager extends ListenerAdapter {
         channel.sendMessage("> Queue shuffled successfully.").queue();
     }
 
+    private void handleStatsCommand(MessageReceivedEvent event) {
+        MessageChannel channel = event.getChannel();
+        Map<String, String> metrics = Metrics.getInstance().snapshot();
+
+        if (metrics.isEmpty()) {
+            channel.sendMessage("> No metrics collected yet.").queue();
+            return;
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, String> metric : metrics.entrySet()) {
+            String line = metric.getKey() + " = " + metric.getValue() + "\n";
+            if (lines.length() + line.length() > 4000) {
+                break;
+            }
+            lines.append(line);
+        }
+
+        EmbedBuilder embed = new EmbedBuilder();
+        embed.setColor(Color.MAGENTA);
+        embed.setTitle("📊  Bot stats");
+        embed.setDescription("```\n" + lines + "```");
+
+        channel.sendMessageEmbeds(embed.build()).queue();
+    }
+
     private void handleHelpCommand(MessageReceivedEvent event) {
         MessageChannel channel = event.getChannel();
         String prefix = BotConfig.get("PREFIX", "!");
@@ -438,6 +463,7 @@ public class CommandManager extends ListenerAdapter {
         embed.addField(prefix + "shuffle or !embaralhar", "Shuffle the song queue", false);
         embed.addField(prefix + "stop", "Stops the player and clears the queue", false);
         embed.addField(prefix + "nowplaying or !np", "Shows information of the current song", false);
+        embed.addField(prefix + "stats", "Show download and playback metrics", false);
         embed.addField(prefix + "help or !ajuda", "Show this help menu", false);
 
         channel.sendMessageEmbeds(embed.build()).queue();
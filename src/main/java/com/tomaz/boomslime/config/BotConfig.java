@@ -21,9 +21,11 @@ public class BotConfig {
     }
 
 
+    /**
+     * Variável de ambiente do processo ou, se não existir, do arquivo .env.
+     */
     public static String get(String key, String defaultValue) {
-        String value = System.getenv(key);
-        return value != null ? value : defaultValue;
+        return dotenv.get(key, defaultValue);
     }
 
 
@@ -1,6 +1,5 @@
 package com.tomaz.boomslime.music;
 
-import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
 
@@ -8,12 +7,16 @@ import java.nio.ByteBuffer;
 
 
 public class AudioPlayerSendHandler implements AudioSendHandler {
-    private final AudioPlayer audioPlayer;
+    private final TrackScheduler scheduler;
     private final ByteBuffer buffer;
     private final MutableAudioFrame frame;
 
-    public AudioPlayerSendHandler(AudioPlayer audioPlayer) {
-        this.audioPlayer = audioPlayer;
+    /**
+     * Lê sempre do player atual do scheduler, que troca de player quando a próxima
+     * música foi pré-carregada.
+     */
+    public AudioPlayerSendHandler(TrackScheduler scheduler) {
+        this.scheduler = scheduler;
         this.buffer = ByteBuffer.allocate(1024);
         this.frame = new MutableAudioFrame();
         this.frame.setBuffer(buffer);
@@ -21,7 +24,8 @@ public class AudioPlayerSendHandler implements AudioSendHandler {
 
     @Override
     public boolean canProvide() {
-        return this.audioPlayer.provide(this.frame);
+        scheduler.pollPreload();
+        return scheduler.getPlayer().provide(this.frame);
     }
 
 
@@ -0,0 +1,140 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.config.BotConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converte em segundo plano as entradas MP3 antigas do cache para Ogg/Opus 48 kHz,
+ * que o lavaplayer repassa direto para o Discord sem decodificar e recodificar.
+ * Uma conversão por vez, com pausa entre elas, para não disputar CPU com a reprodução.
+ */
+public class CacheMigrator {
+    private static final long PAUSE_BETWEEN_FILES_MS = 2000;
+    private static final long FFMPEG_TIMEOUT_SECONDS = 120;
+
+    private final TrackCacheIndex cacheIndex;
+    private final CachePolicy cachePolicy;
+    private final String bitrate;
+
+    public CacheMigrator(TrackCacheIndex cacheIndex, CachePolicy cachePolicy, String bitrate) {
+        this.cacheIndex = cacheIndex;
+        this.cachePolicy = cachePolicy;
+        this.bitrate = bitrate;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::migrateAll, "CacheMigrator");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void migrateAll() {
+        List<TrackCacheIndex.CacheEntry> pending = new ArrayList<>();
+        for (TrackCacheIndex.CacheEntry entry : cacheIndex.entries()) {
+            if (entry.getFileName().endsWith(".mp3")) {
+                pending.add(entry);
+            }
+        }
+
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        System.out.println("migrando " + pending.size() + " arquivos mp3 do cache para opus...");
+        int migrated = 0;
+
+        for (TrackCacheIndex.CacheEntry entry : pending) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            if (cachePolicy.getPinnedTracks().contains(entry.getTrackId())) {
+                continue;
+            }
+
+            if (migrate(entry)) {
+                migrated++;
+            }
+
+            try {
+                Thread.sleep(PAUSE_BETWEEN_FILES_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        System.out.println("migracao do cache concluida: " + migrated + "/" + pending.size() + " arquivos convertidos para opus");
+    }
+
+    private boolean migrate(TrackCacheIndex.CacheEntry entry) {
+        Path source = cacheIndex.resolve(entry);
+        String baseName = entry.getFileName().substring(0, entry.getFileName().length() - ".mp3".length());
+        Path target = source.resolveSibling(baseName + ".opus");
+        Path partial = source.resolveSibling(baseName + ".opus.part");
+
+        Process process = null;
+        try {
+            if (!Files.exists(source)) {
+                return false;
+            }
+
+            String ffmpegPath = BotConfig.get("FFMPEG_PATH");
+            List<String> command = new ArrayList<>();
+            command.add(ffmpegPath != null && !ffmpegPath.isEmpty() ? ffmpegPath : "ffmpeg");
+            command.add("-y");
+            command.add("-loglevel");
+            command.add("error");
+            command.add("-i");
+            command.add(source.toString());
+            command.add("-vn");
+            command.add("-map_metadata");
+            command.add("0");
+            command.add("-c:a");
+            command.add("libopus");
+            command.add("-b:a");
+            command.add(bitrate);
+            command.add("-ar");
+            command.add("48000");
+            command.add("-ac");
+            command.add("2");
+            command.add("-f");
+            command.add("opus");
+            command.add(partial.toString());
+
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            process = pb.start();
+
+            if (!process.waitFor(FFMPEG_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                System.err.println("ffmpeg falhou ao converter " + entry.getFileName());
+                Files.deleteIfExists(partial);
+                return false;
+            }
+
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cacheIndex.put(target);
+            Files.deleteIfExists(source);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            System.err.println("erro ao migrar " + entry.getFileName() + ": " + e.getMessage());
+            return false;
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
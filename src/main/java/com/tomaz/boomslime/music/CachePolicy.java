@@ -0,0 +1,97 @@
+package com.tomaz.boomslime.music;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Mantém a pasta de músicas dentro de um orçamento de bytes, removendo primeiro
+ * as tracks tocadas há mais tempo (LRU) ou as menos tocadas (LFU).
+ * Tracks na fila, tocando, no histórico ou sendo baixadas nunca são removidas.
+ */
+public class CachePolicy {
+    private static final double LOW_WATERMARK = 0.9;
+
+    public enum Mode {
+        LRU, LFU
+    }
+
+    private final TrackCacheIndex cacheIndex;
+    private final long maxBytes;
+    private final Mode mode;
+    private volatile Supplier<Set<String>> pinnedTracks = Collections::emptySet;
+
+    public CachePolicy(TrackCacheIndex cacheIndex, long maxBytes, Mode mode) {
+        this.cacheIndex = cacheIndex;
+        this.maxBytes = maxBytes;
+        this.mode = mode;
+    }
+
+    public void setPinnedTracks(Supplier<Set<String>> pinnedTracks) {
+        this.pinnedTracks = pinnedTracks;
+    }
+
+    public Set<String> getPinnedTracks() {
+        return pinnedTracks.get();
+    }
+
+    /**
+     * Se o cache passou do orçamento, remove tracks até ficar abaixo de 90% dele.
+     */
+    public synchronized void enforceBudget() {
+        if (maxBytes <= 0) {
+            return;
+        }
+
+        long total = cacheIndex.totalBytes();
+        if (total <= maxBytes) {
+            return;
+        }
+
+        Set<String> pinned = pinnedTracks.get();
+        List<TrackCacheIndex.CacheEntry> candidates = new ArrayList<>();
+        for (TrackCacheIndex.CacheEntry entry : cacheIndex.entries()) {
+            if (!pinned.contains(entry.getTrackId())) {
+                candidates.add(entry);
+            }
+        }
+
+        Comparator<TrackCacheIndex.CacheEntry> order = mode == Mode.LFU
+            ? Comparator.comparingLong(TrackCacheIndex.CacheEntry::getHits)
+                .thenComparingLong(TrackCacheIndex.CacheEntry::getLastAccess)
+            : Comparator.comparingLong(TrackCacheIndex.CacheEntry::getLastAccess);
+        candidates.sort(order);
+
+        long target = (long) (maxBytes * LOW_WATERMARK);
+        int deleted = 0;
+        long freed = 0;
+
+        for (TrackCacheIndex.CacheEntry entry : candidates) {
+            if (total <= target) {
+                break;
+            }
+
+            try {
+                Files.deleteIfExists(cacheIndex.resolve(entry));
+                cacheIndex.remove(entry.getTrackId());
+                total -= entry.getSize();
+                freed += entry.getSize();
+                deleted++;
+            } catch (IOException e) {
+                System.err.println("erro ao remover " + entry.getFileName() + " do cache: " + e.getMessage());
+            }
+        }
+
+        if (deleted > 0) {
+            System.out.println("cache (" + mode + "): removeu " + deleted + " arquivos, liberou " + (freed / (1024 * 1024)) + " MB");
+        }
+        if (total > maxBytes) {
+            System.err.println("⚠ cache acima do limite mesmo apos eviction (tracks em uso)");
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.tools.Units;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Send handler com crossfade: os dois players do {@link TrackScheduler} geram PCM
+ * (48 kHz, 16 bits, estéreo, big-endian) e, na janela de crossfade, os frames da música
+ * que sai e da que entra são misturados amostra a amostra, com ganho linear.
+ * Roda na thread que pede os frames: a de envio do JDA ou, com {@code AUDIO_BUFFER_FRAMES},
+ * o produtor do {@link JitterBufferedSendHandler}. Os buffers são alocados uma vez; mudanças
+ * no estado dos players passam pela caixa do scheduler.
+ */
+public class CrossfadeSendHandler implements AudioSendHandler {
+    private static final int SAMPLES_PER_MS = 48;
+    private static final int FRAME_BYTES = 960 * 2 * 2;
+
+    private final TrackScheduler scheduler;
+    private final long crossfadeMs;
+    private final int fadeSamples;
+
+    private final byte[] incomingData = new byte[FRAME_BYTES];
+    private final byte[] outgoingData = new byte[FRAME_BYTES];
+    private final byte[] mixedData = new byte[FRAME_BYTES];
+    private final ByteBuffer incomingBuffer = ByteBuffer.wrap(incomingData);
+    private final ByteBuffer mixedBuffer = ByteBuffer.wrap(mixedData);
+    private final MutableAudioFrame incomingFrame = new MutableAudioFrame();
+    private final MutableAudioFrame outgoingFrame = new MutableAudioFrame();
+
+    private ByteBuffer ready;
+    private AudioTrack checkedTrack;
+    private int deck;
+    private boolean fading = false;
+    private int fadePosition = 0;
+
+    public CrossfadeSendHandler(TrackScheduler scheduler, long crossfadeMs) {
+        this.scheduler = scheduler;
+        this.deck = scheduler.getActiveDeck();
+        this.crossfadeMs = crossfadeMs;
+        this.fadeSamples = (int) Math.max(1, crossfadeMs * SAMPLES_PER_MS);
+        this.incomingFrame.setBuffer(incomingBuffer);
+        this.outgoingFrame.setBuffer(ByteBuffer.wrap(outgoingData));
+    }
+
+    @Override
+    public boolean canProvide() {
+        int activeDeck = scheduler.getActiveDeck();
+        if (activeDeck != deck) {
+            // o scheduler trocou de player: crossfade começando, ou troca seca (skip, pré-carregamento)
+            deck = activeDeck;
+            fading = scheduler.isFadeSwap();
+            fadePosition = 0;
+        }
+
+        if (!fading) {
+            scheduler.pollPreload();
+            checkCrossfadePoint();
+        }
+
+        AudioPlayer player = scheduler.getPlayer();
+        if (!fading) {
+            if (!player.provide(incomingFrame)) {
+                return false;
+            }
+            incomingBuffer.flip();
+            ready = incomingBuffer;
+            return true;
+        }
+
+        // pausado no meio do crossfade: a música que sai também fica parada
+        if (player.isPaused()) {
+            return false;
+        }
+
+        AudioPlayer outgoing = scheduler.getOutgoingPlayer();
+        boolean hasIncoming = player.provide(incomingFrame);
+        boolean hasOutgoing = outgoing != null && outgoing.provide(outgoingFrame);
+
+        if (!hasOutgoing && (outgoing == null || outgoing.getPlayingTrack() == null)) {
+            fading = false;
+            if (!hasIncoming) {
+                return false;
+            }
+            incomingBuffer.flip();
+            ready = incomingBuffer;
+            return true;
+        }
+
+        int length = Math.max(hasIncoming ? incomingFrame.getDataLength() : 0,
+            hasOutgoing ? outgoingFrame.getDataLength() : 0);
+        if (length == 0) {
+            return false;
+        }
+
+        mix(hasIncoming ? incomingFrame.getDataLength() : 0, hasOutgoing ? outgoingFrame.getDataLength() : 0, length);
+
+        if (hasIncoming) {
+            // a rampa só anda quando a música que entra já está tocando
+            fadePosition += length / 4;
+            if (fadePosition >= fadeSamples) {
+                fading = false;
+                scheduler.finishCrossfade(deck);
+            }
+        }
+
+        mixedBuffer.clear().limit(length);
+        ready = mixedBuffer;
+        return true;
+    }
+
+    /**
+     * Quando falta menos que a janela de crossfade para a música atual acabar, pede ao
+     * scheduler para começar a próxima no outro player. Verificado uma vez por música;
+     * o fade começa no frame em que a troca de player aparece.
+     */
+    private void checkCrossfadePoint() {
+        AudioPlayer player = scheduler.getPlayer();
+        AudioTrack playing = player.getPlayingTrack();
+        if (playing == null || playing == checkedTrack || player.isPaused()) {
+            return;
+        }
+
+        long duration = playing.getDuration();
+        if (duration == Units.DURATION_MS_UNKNOWN || duration < 2 * crossfadeMs
+                || duration - playing.getPosition() > crossfadeMs) {
+            return;
+        }
+
+        checkedTrack = playing;
+        scheduler.requestCrossfade();
+    }
+
+    private void mix(int incomingLength, int outgoingLength, int length) {
+        for (int i = 0; i < length; i += 4) {
+            float gainIn = Math.min(1f, (fadePosition + (i >> 2)) / (float) fadeSamples);
+            float gainOut = 1f - gainIn;
+
+            for (int channel = 0; channel < 4; channel += 2) {
+                int offset = i + channel;
+                int in = offset < incomingLength ? sample(incomingData, offset) : 0;
+                int out = offset < outgoingLength ? sample(outgoingData, offset) : 0;
+                int mixed = Math.round(in * gainIn + out * gainOut);
+
+                if (mixed > Short.MAX_VALUE) {
+                    mixed = Short.MAX_VALUE;
+                } else if (mixed < Short.MIN_VALUE) {
+                    mixed = Short.MIN_VALUE;
+                }
+                mixedData[offset] = (byte) (mixed >> 8);
+                mixedData[offset + 1] = (byte) mixed;
+            }
+        }
+    }
+
+    private static int sample(byte[] data, int offset) {
+        return (short) ((data[offset] << 8) | (data[offset + 1] & 0xFF));
+    }
+
+    @Override
+    public ByteBuffer provide20MsAudio() {
+        return ready;
+    }
+
+    @Override
+    public boolean isOpus() {
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+package com.tomaz.boomslime.music;
+
+/**
+ * Falha de uma tentativa de download, com a classe do erro para decidir se vale tentar de novo.
+ */
+public class DownloadException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        /** Rede, timeout, processo que morreu: tenta de novo com backoff. */
+        TRANSIENT,
+        /** Fonte limitando requisições: tenta de novo com backoff maior. */
+        RATE_LIMITED,
+        /** Track inexistente ou indisponível: não adianta tentar de novo. */
+        PERMANENT
+    }
+
+    private final Kind kind;
+
+    public DownloadException(Kind kind, String message) {
+        super(message);
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Classifica uma linha de saída do spotdl/yt-dlp. Retorna null se a linha não indica erro conhecido.
+     */
+    public static Kind classify(String line) {
+        String lower = line.toLowerCase();
+
+        if (lower.contains("429") || lower.contains("too many requests") || lower.contains("rate limit")
+                || lower.contains("confirm you're not a bot") || lower.contains("confirm you’re not a bot")) {
+            return Kind.RATE_LIMITED;
+        }
+        if (lower.contains("no results found") || lower.contains("lookuperror") || lower.contains("video unavailable")
+                || lower.contains("is not available") || lower.contains("non existing id") || lower.contains("invalid id")
+                || lower.contains("404")) {
+            return Kind.PERMANENT;
+        }
+        return null;
+    }
+}
@@ -1,5 +1,11 @@
 package com.tomaz.boomslime.music;
 
+import com.tomaz.boomslime.config.BotConfig;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
@@ -8,17 +14,20 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class DownloadManager {
     private static DownloadManager INSTANCE;
 
-    private final ExecutorService downloadExecutor;
+    private final DownloadScheduler scheduler;
 
     private final Map<Long, GuildDownloadState> guildStates;
 
+    private final Map<String, SharedDownload> inFlight;
+
     private DownloadManager() {
-        this.downloadExecutor = Executors.newFixedThreadPool(3, r -> {
-            Thread t = new Thread(r, "DownloadThread");
-            t.setDaemon(true);
-            return t;
-        });
+        boolean virtualThreads = Boolean.parseBoolean(BotConfig.get("DOWNLOAD_VIRTUAL_THREADS", "false"));
+        int concurrency = virtualThreads
+            ? Integer.parseInt(BotConfig.get("DOWNLOAD_VIRTUAL_CONCURRENCY", "1000"))
+            : Integer.parseInt(BotConfig.get("DOWNLOAD_THREADS", "3"));
+        this.scheduler = new DownloadScheduler(concurrency, virtualThreads);
         this.guildStates = new ConcurrentHashMap<>();
+        this.inFlight = new ConcurrentHashMap<>();
     }
 
     public static synchronized DownloadManager getInstance() {
@@ -41,6 +50,10 @@ public class DownloadManager {
     }
 
     public Future<String> submitDownload(long guildId, Callable<String> downloadTask) {
+        return submitDownload(guildId, DownloadPriority.NOW, downloadTask);
+    }
+
+    public Future<String> submitDownload(long guildId, DownloadPriority priority, Callable<String> downloadTask) {
         GuildDownloadState state = getGuildState(guildId);
 
         Callable<String> wrappedTask = () -> {
@@ -59,12 +72,316 @@ public class DownloadManager {
             }
         };
 
-        Future<String> future = downloadExecutor.submit(wrappedTask);
+        Future<String> future = scheduler.submit(guildId, priority, wrappedTask);
         state.registerFuture(future);
 
         return future;
     }
 
+    public Set<String> getInFlightKeys() {
+        return new HashSet<>(inFlight.keySet());
+    }
+
+    /**
+     * Pede o download de uma track para a guild. Se a mesma track ja estiver sendo baixada
+     * (por outra guild ou pela mesma playlist), o pedido se anexa ao download em andamento.
+     * O future completa com o caminho do arquivo, ou null se o download falhar.
+     */
+    public CompletableFuture<String> requestTrack(long guildId, String trackUrl) {
+        return requestTracks(guildId, List.of(trackUrl), DownloadPriority.NOW).get(0);
+    }
+
+    /**
+     * Igual a {@link #requestTrack}, mas as tracks que ainda nao estao em andamento
+     * sao baixadas juntas numa unica execucao do spotdl. Cada future completa
+     * assim que o arquivo da sua track fica pronto. Se alguma track ja estiver na fila
+     * com prioridade menor, ela e promovida para {@code priority}.
+     */
+    public List<CompletableFuture<String>> requestTracks(long guildId, List<String> trackUrls, DownloadPriority priority) {
+        GuildDownloadState state = getGuildState(guildId);
+        List<CompletableFuture<String>> handles = new ArrayList<>();
+        Map<CompletableFuture<String>, SharedDownload> attachments = new LinkedHashMap<>();
+        List<SharedDownload> created = new ArrayList<>();
+
+        for (String trackUrl : trackUrls) {
+            CompletableFuture<String> handle = new CompletableFuture<>();
+            handles.add(handle);
+
+            if (state.isCancelled()) {
+                handle.cancel(false);
+                continue;
+            }
+
+            attachments.put(handle, attach(trackUrl, handle, created, priority));
+        }
+
+        if (created.size() == 1) {
+            created.get(0).start(guildId, priority);
+        } else if (!created.isEmpty()) {
+            new BatchDownload(created).start(guildId, priority);
+        }
+
+        for (Map.Entry<CompletableFuture<String>, SharedDownload> entry : attachments.entrySet()) {
+            CompletableFuture<String> handle = entry.getKey();
+            SharedDownload shared = entry.getValue();
+
+            state.registerFuture(handle);
+            handle.whenComplete((path, error) -> {
+                state.unregisterFuture(handle);
+                if (handle.isCancelled()) {
+                    shared.detach(handle);
+                }
+            });
+        }
+
+        return handles;
+    }
+
+    /**
+     * Igual a {@link #requestTrack}, mas em modo progressivo: o future completa assim que
+     * houver audio suficiente para comecar a tocar, com o identificador que o
+     * {@link ProgressiveAudioSourceManager} reconhece, enquanto o download continua.
+     */
+    public CompletableFuture<String> requestStream(long guildId, String trackUrl) {
+        GuildDownloadState state = getGuildState(guildId);
+        CompletableFuture<String> handle = new CompletableFuture<>();
+
+        if (state.isCancelled()) {
+            handle.cancel(false);
+            return handle;
+        }
+
+        List<SharedDownload> created = new ArrayList<>();
+        SharedDownload shared = attach(trackUrl, handle, created, DownloadPriority.NOW);
+        if (!created.isEmpty()) {
+            shared.startStreaming(guildId);
+        }
+
+        state.registerFuture(handle);
+        handle.whenComplete((path, error) -> {
+            state.unregisterFuture(handle);
+            if (handle.isCancelled()) {
+                shared.detach(handle);
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Sobe a prioridade do download de uma track que ainda esta na fila, se houver um.
+     */
+    public void promote(String trackUrl, DownloadPriority priority) {
+        String trackId = SpotifyDownloader.extractTrackId(trackUrl);
+        SharedDownload shared = inFlight.get(trackId != null ? trackId : trackUrl);
+        if (shared != null) {
+            shared.promote(priority);
+        }
+    }
+
+    private SharedDownload attach(String trackUrl, CompletableFuture<String> handle, List<SharedDownload> created,
+                                  DownloadPriority priority) {
+        String trackId = SpotifyDownloader.extractTrackId(trackUrl);
+        String key = trackId != null ? trackId : trackUrl;
+
+        while (true) {
+            SharedDownload fresh = new SharedDownload(key, trackUrl);
+            SharedDownload shared = inFlight.putIfAbsent(key, fresh);
+
+            if (shared == null) {
+                fresh.attach(handle);
+                created.add(fresh);
+                return fresh;
+            }
+
+            if (shared.attach(handle)) {
+                System.out.println("🔗 Download de " + key + " ja em andamento, aguardando o mesmo resultado");
+                shared.promote(priority);
+                return shared;
+            }
+        }
+    }
+
+    private class SharedDownload {
+        private final String key;
+        private final String trackUrl;
+        private final Set<CompletableFuture<String>> waiters = ConcurrentHashMap.newKeySet();
+        private Runnable canceller;
+        private DownloadScheduler.Ticket<?> ticket;
+        private boolean closed = false;
+        private boolean finished = false;
+        private String readyPath;
+
+        SharedDownload(String key, String trackUrl) {
+            this.key = key;
+            this.trackUrl = trackUrl;
+        }
+
+        synchronized boolean attach(CompletableFuture<String> handle) {
+            if (closed) {
+                return false;
+            }
+            waiters.add(handle);
+            if (readyPath != null) {
+                handle.complete(readyPath);
+            }
+            return true;
+        }
+
+        synchronized void setCanceller(Runnable canceller) {
+            this.canceller = canceller;
+        }
+
+        synchronized void setTicket(DownloadScheduler.Ticket<?> ticket) {
+            this.ticket = ticket;
+        }
+
+        synchronized void start(long guildId, DownloadPriority priority) {
+            ticket = scheduler.submit(guildId, priority, () -> {
+                String filePath = null;
+                try {
+                    filePath = SpotifyDownloader.getInstance().downloadTrack(trackUrl);
+                } finally {
+                    finish(filePath);
+                }
+                return null;
+            });
+            DownloadScheduler.Ticket<?> task = ticket;
+            canceller = () -> task.cancel(true);
+        }
+
+        synchronized void startStreaming(long guildId) {
+            ticket = scheduler.submit(guildId, DownloadPriority.NOW, () -> {
+                String filePath = null;
+                try {
+                    filePath = SpotifyDownloader.getInstance().downloadProgressive(trackUrl, this::ready);
+                } finally {
+                    finish(filePath);
+                }
+                return null;
+            });
+            DownloadScheduler.Ticket<?> task = ticket;
+            canceller = () -> task.cancel(true);
+        }
+
+        void promote(DownloadPriority priority) {
+            DownloadScheduler.Ticket<?> task;
+            synchronized (this) {
+                task = ticket;
+            }
+            if (task != null) {
+                scheduler.promote(task, priority);
+            }
+        }
+
+        /**
+         * Libera os interessados antes do fim do download (modo progressivo). O download
+         * continua em andamento e segue em {@code inFlight} ate terminar.
+         */
+        private void ready(String identifier) {
+            synchronized (this) {
+                readyPath = identifier;
+            }
+            for (CompletableFuture<String> waiter : waiters) {
+                waiter.complete(identifier);
+            }
+        }
+
+        void detach(CompletableFuture<String> handle) {
+            Runnable toRun;
+
+            synchronized (this) {
+                waiters.remove(handle);
+                if (closed || !waiters.isEmpty()) {
+                    return;
+                }
+                closed = true;
+                toRun = canceller;
+            }
+
+            inFlight.remove(key, this);
+            System.out.println("⏹ Nenhuma guild aguarda mais " + key + ", cancelando download");
+            if (toRun != null) {
+                toRun.run();
+            }
+        }
+
+        /**
+         * @return false se ja tinha sido finalizado ou abandonado por todas as guilds
+         */
+        boolean finish(String filePath) {
+            boolean abandoned;
+            synchronized (this) {
+                if (finished) {
+                    return false;
+                }
+                abandoned = closed;
+                finished = true;
+                closed = true;
+            }
+            inFlight.remove(key, this);
+
+            for (CompletableFuture<String> waiter : waiters) {
+                waiter.complete(filePath);
+            }
+            return !abandoned;
+        }
+    }
+
+    /**
+     * Execucao do spotdl compartilhada por varias tracks. So e cancelada quando
+     * todas as tracks ainda nao concluidas perderam seus interessados.
+     */
+    private class BatchDownload {
+        private final Map<String, SharedDownload> members;
+        private int live;
+        private DownloadScheduler.Ticket<?> task;
+
+        BatchDownload(List<SharedDownload> downloads) {
+            this.members = new LinkedHashMap<>();
+            for (SharedDownload download : downloads) {
+                members.put(download.trackUrl, download);
+                download.setCanceller(this::abandon);
+            }
+            this.live = members.size();
+        }
+
+        synchronized void start(long guildId, DownloadPriority priority) {
+            List<String> urls = new ArrayList<>(members.keySet());
+
+            task = scheduler.submit(guildId, priority, () -> {
+                try {
+                    SpotifyDownloader.getInstance().downloadBatch(urls, (url, filePath) -> {
+                        SharedDownload download = members.get(url);
+                        if (download != null && download.finish(filePath)) {
+                            memberFinished();
+                        }
+                    });
+                } finally {
+                    for (SharedDownload download : members.values()) {
+                        download.finish(null);
+                    }
+                }
+                return null;
+            });
+
+            for (SharedDownload download : members.values()) {
+                download.setTicket(task);
+            }
+        }
+
+        private synchronized void memberFinished() {
+            live--;
+        }
+
+        private synchronized void abandon() {
+            live--;
+            if (live <= 0 && task != null) {
+                System.out.println("⏹ Lote de downloads sem interessados, cancelando");
+                task.cancel(true);
+            }
+        }
+    }
+
     public static class GuildDownloadState {
         private final AtomicBoolean cancelled = new AtomicBoolean(false);
         private final Set<Future<?>> activeFutures = ConcurrentHashMap.newKeySet();
@@ -97,6 +414,10 @@ public class DownloadManager {
             activeFutures.add(future);
         }
 
+        void unregisterFuture(Future<?> future) {
+            activeFutures.remove(future);
+        }
+
         void registerThread(Thread thread) {
             activeThreads.add(thread);
         }
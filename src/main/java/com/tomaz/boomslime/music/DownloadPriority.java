@@ -0,0 +1,13 @@
+package com.tomaz.boomslime.music;
+
+/**
+ * Classes de prioridade do {@link DownloadScheduler}, da mais urgente para a menos urgente.
+ */
+public enum DownloadPriority {
+    /** Track que alguém está esperando agora (!play, início de playlist). */
+    NOW,
+    /** Próximas tracks da fila, que vão tocar em breve. */
+    NEXT,
+    /** Resto da playlist, baixado antecipadamente. */
+    PREFETCH
+}
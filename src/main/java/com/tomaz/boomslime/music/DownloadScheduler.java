@@ -0,0 +1,275 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.util.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor de downloads com prioridade. Sempre atende a classe mais urgente que tiver
+ * trabalho e, dentro de cada classe, alterna entre as guilds (round-robin), para que a
+ * playlist gigante de uma guild não atrase o !play de outra.
+ *
+ * No modo de virtual threads cada tarefa roda numa virtual thread própria (até
+ * {@code concurrency} ao mesmo tempo); o limite de processos reais fica no {@link ProcessSlots}.
+ */
+public class DownloadScheduler {
+    private static final ThreadLocal<Ticket<?>> CURRENT = new ThreadLocal<>();
+
+    private final Map<DownloadPriority, LinkedHashMap<Long, ArrayDeque<Entry>>> queues;
+    private final Map<DownloadPriority, Integer> pending;
+    private final Semaphore running;
+    private final AtomicLong virtualIds = new AtomicLong();
+
+    public DownloadScheduler(int concurrency, boolean virtualThreads) {
+        this.queues = new EnumMap<>(DownloadPriority.class);
+        this.pending = new EnumMap<>(DownloadPriority.class);
+
+        Metrics metrics = Metrics.getInstance();
+        for (DownloadPriority priority : DownloadPriority.values()) {
+            queues.put(priority, new LinkedHashMap<>());
+            pending.put(priority, 0);
+            metrics.gauge("downloads.queued." + name(priority), () -> queuedCount(priority));
+        }
+
+        if (virtualThreads) {
+            this.running = new Semaphore(concurrency);
+            metrics.gauge("downloads.running", () -> concurrency - running.availablePermits());
+            Thread dispatcher = new Thread(this::dispatchLoop, "DownloadDispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            System.out.println("downloads em virtual threads (ate " + concurrency + " tarefas simultaneas)");
+        } else {
+            this.running = null;
+            for (int i = 0; i < concurrency; i++) {
+                Thread worker = new Thread(this::workLoop, "DownloadThread-" + (i + 1));
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+    }
+
+    /**
+     * Tarefa de download sendo executada pela thread atual, ou null fora do scheduler.
+     */
+    static Ticket<?> currentTicket() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Prioridade da tarefa da thread atual (NOW fora do scheduler).
+     */
+    static DownloadPriority currentPriority() {
+        Ticket<?> ticket = CURRENT.get();
+        return ticket != null ? ticket.priority : DownloadPriority.NOW;
+    }
+
+    /**
+     * Amarra um processo filho à tarefa atual: se ela for cancelada, o processo é destruído
+     * na hora, mesmo com a thread bloqueada lendo a saída dele.
+     */
+    static void bindProcess(Process process) {
+        Ticket<?> ticket = CURRENT.get();
+        if (ticket != null) {
+            ticket.onCancel(process::destroyForcibly);
+        }
+    }
+
+    public <T> Ticket<T> submit(long guildId, DownloadPriority priority, Callable<T> task) {
+        Ticket<T> ticket = new Ticket<>(guildId, priority, task);
+        enqueue(new Entry(ticket, priority));
+        return ticket;
+    }
+
+    /**
+     * Sobe a prioridade de uma tarefa que ainda não começou, tirando a entrada da fila de
+     * origem para a contagem de pendentes não contar a tarefa duas vezes.
+     */
+    public void promote(Ticket<?> ticket, DownloadPriority priority) {
+        DownloadPriority previous;
+        synchronized (ticket) {
+            if (ticket.claimed.get() || ticket.isDone() || priority.compareTo(ticket.priority) >= 0) {
+                return;
+            }
+            previous = ticket.priority;
+            ticket.priority = priority;
+        }
+
+        Metrics.getInstance().counter("downloads.promoted").increment();
+        requeue(ticket, previous, priority);
+    }
+
+    private synchronized void requeue(Ticket<?> ticket, DownloadPriority from, DownloadPriority to) {
+        // se a entrada já saiu da fila (take sem claim ainda), a contagem já foi descontada
+        LinkedHashMap<Long, ArrayDeque<Entry>> byGuild = queues.get(from);
+        ArrayDeque<Entry> lane = byGuild.get(ticket.guildId);
+        if (lane != null && lane.removeIf(entry -> entry.ticket == ticket)) {
+            pending.merge(from, -1, Integer::sum);
+            if (lane.isEmpty()) {
+                byGuild.remove(ticket.guildId);
+            }
+        }
+        enqueue(new Entry(ticket, to));
+    }
+
+    private synchronized void enqueue(Entry entry) {
+        queues.get(entry.priority)
+            .computeIfAbsent(entry.ticket.guildId, id -> new ArrayDeque<>())
+            .addLast(entry);
+        pending.merge(entry.priority, 1, Integer::sum);
+        notify();
+    }
+
+    private synchronized Entry take() throws InterruptedException {
+        while (true) {
+            for (DownloadPriority priority : DownloadPriority.values()) {
+                LinkedHashMap<Long, ArrayDeque<Entry>> byGuild = queues.get(priority);
+                Iterator<Map.Entry<Long, ArrayDeque<Entry>>> it = byGuild.entrySet().iterator();
+                if (!it.hasNext()) {
+                    continue;
+                }
+
+                Map.Entry<Long, ArrayDeque<Entry>> first = it.next();
+                Entry entry = first.getValue().pollFirst();
+                it.remove();
+                if (!first.getValue().isEmpty()) {
+                    // guild volta para o fim da fila da classe
+                    byGuild.put(first.getKey(), first.getValue());
+                }
+                pending.merge(priority, -1, Integer::sum);
+                return entry;
+            }
+            wait();
+        }
+    }
+
+    final synchronized long queuedCount(DownloadPriority priority) {
+        return pending.get(priority);
+    }
+
+    private void workLoop() {
+        while (true) {
+            Entry entry;
+            try {
+                entry = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (claim(entry)) {
+                execute(entry.ticket);
+                // limpa uma interrupcao deixada por cancel(true) antes de pegar a proxima tarefa
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            Entry entry;
+            try {
+                running.acquire();
+                entry = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (!claim(entry)) {
+                running.release();
+                continue;
+            }
+
+            Thread.ofVirtual().name("DownloadVirtual-" + virtualIds.incrementAndGet()).start(() -> {
+                try {
+                    execute(entry.ticket);
+                } finally {
+                    running.release();
+                }
+            });
+        }
+    }
+
+    private boolean claim(Entry entry) {
+        Ticket<?> ticket = entry.ticket;
+        synchronized (ticket) {
+            if (ticket.priority != entry.priority || ticket.isDone() || !ticket.claimed.compareAndSet(false, true)) {
+                return false;
+            }
+        }
+
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ticket.submittedAt);
+        Metrics.getInstance().timer("downloads.wait." + name(entry.priority)).record(waitedMs);
+        return true;
+    }
+
+    private void execute(Ticket<?> ticket) {
+        CURRENT.set(ticket);
+        try {
+            ticket.run();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    private static String name(DownloadPriority priority) {
+        return priority.name().toLowerCase();
+    }
+
+    public static class Ticket<T> extends FutureTask<T> {
+        private final long guildId;
+        private final long submittedAt;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+        private volatile DownloadPriority priority;
+
+        Ticket(long guildId, DownloadPriority priority, Callable<T> task) {
+            super(task);
+            this.guildId = guildId;
+            this.priority = priority;
+            this.submittedAt = System.nanoTime();
+        }
+
+        public DownloadPriority getPriority() {
+            return priority;
+        }
+
+        void onCancel(Runnable hook) {
+            cancelHooks.add(hook);
+            if (isCancelled()) {
+                hook.run();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                for (Runnable hook : cancelHooks) {
+                    hook.run();
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    private static class Entry {
+        private final Ticket<?> ticket;
+        private final DownloadPriority priority;
+
+        Entry(Ticket<?> ticket, DownloadPriority priority) {
+            this.ticket = ticket;
+            this.priority = priority;
+        }
+    }
+}
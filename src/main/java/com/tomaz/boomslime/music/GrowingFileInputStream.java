@@ -0,0 +1,104 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.tools.Units;
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.track.info.AudioTrackInfoProvider;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SeekableInputStream sobre um arquivo que ainda está sendo escrito. Leituras além do que
+ * já foi escrito bloqueiam até os bytes chegarem; se o download falhar, a leitura lança IOException.
+ */
+public class GrowingFileInputStream extends SeekableInputStream {
+    private final ProgressiveDownload download;
+    private final RandomAccessFile file;
+    private long position;
+
+    GrowingFileInputStream(ProgressiveDownload download, Path path) throws IOException {
+        super(download.isComplete() ? path.toFile().length() : Units.CONTENT_LENGTH_UNKNOWN, 0);
+        this.download = download;
+        this.file = new RandomAccessFile(path.toFile(), "r");
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!waitForData()) {
+            return -1;
+        }
+
+        int value = file.read();
+        if (value >= 0) {
+            position++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!waitForData()) {
+            return -1;
+        }
+
+        int available = (int) Math.min(length, file.length() - position);
+        int read = file.read(buffer, offset, available);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long target = position + count;
+        seekHard(target);
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, file.length() - position));
+    }
+
+    private boolean waitForData() throws IOException {
+        while (file.length() <= position) {
+            if (!download.awaitData()) {
+                return file.length() > position;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    protected void seekHard(long targetPosition) throws IOException {
+        position = targetPosition;
+        file.seek(targetPosition);
+    }
+
+    @Override
+    public boolean canSeekHard() {
+        return true;
+    }
+
+    @Override
+    public List<AudioTrackInfoProvider> getTrackInfoProviders() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
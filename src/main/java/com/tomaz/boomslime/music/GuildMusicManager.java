@@ -2,27 +2,70 @@ package com.tomaz.boomslime.music;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import net.dv8tion.jda.api.audio.AudioSendHandler;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 public class GuildMusicManager {
-    private final AudioPlayer audioPlayer;
+    /**
+     * Ciclo de vida no registro do {@link PlayerManager}: ACTIVE em uso, IDLE quando a
+     * política de ociosidade começou a contar, RELEASED depois que os recursos foram liberados
+     * (a próxima chamada para a guild cria outro manager).
+     */
+    public enum State {
+        ACTIVE,
+        IDLE,
+        RELEASED
+    }
+
     private final TrackScheduler scheduler;
-    private final AudioPlayerSendHandler sendHandler;
+    private final AudioPlayer audioPlayer;
+    private final AudioPlayer standby;
+    private final AudioSendHandler sendHandler;
+    private final AtomicReference<State> state = new AtomicReference<>(State.ACTIVE);
+    private volatile long idleSince;
     private MessageChannel textChannel;
 
-    public GuildMusicManager(AudioPlayerManager manager) {
+    /**
+     * @param crossfadeMs janela de crossfade entre músicas; 0 mantém o Opus direto
+     * @param preloadMs quanto antes do fim (e do crossfade) a próxima música é aberta; 0 desliga
+     * @param bufferFrames frames de 20 ms guardados à frente do envio; 0 envia direto do player
+     */
+    public GuildMusicManager(AudioPlayerManager manager, long guildId, long crossfadeMs, long preloadMs,
+                             int bufferFrames) {
         this.audioPlayer = manager.createPlayer();
-        this.scheduler = new TrackScheduler(this.audioPlayer);
-        this.audioPlayer.addListener(this.scheduler);
-        this.sendHandler = new AudioPlayerSendHandler(this.audioPlayer);
+        this.standby = crossfadeMs > 0 || preloadMs > 0 ? manager.createPlayer() : null;
+
+        this.scheduler = new TrackScheduler(guildId, audioPlayer, standby, preloadMs > 0 ? crossfadeMs + preloadMs : 0);
+        audioPlayer.addListener(this.scheduler);
+        if (standby != null) {
+            standby.addListener(this.scheduler);
+        }
+
+        AudioSendHandler source = crossfadeMs > 0
+            ? new CrossfadeSendHandler(this.scheduler, crossfadeMs)
+            : new AudioPlayerSendHandler(this.scheduler);
+        if (bufferFrames > 0) {
+            JitterBufferedSendHandler buffered = new JitterBufferedSendHandler(source, this.scheduler, guildId, bufferFrames);
+            this.scheduler.setOutputFlush(buffered::flush);
+            this.sendHandler = buffered;
+        } else {
+            this.sendHandler = source;
+        }
+
+        this.scheduler.start();
     }
 
-    public AudioPlayerSendHandler getSendHandler() {
+    public AudioSendHandler getSendHandler() {
         return sendHandler;
     }
 
+    /**
+     * Player da música atual (com crossfade, alterna entre os dois players a cada música).
+     */
     public AudioPlayer getAudioPlayer() {
-        return audioPlayer;
+        return scheduler.getPlayer();
     }
 
     public TrackScheduler getScheduler() {
@@ -37,4 +80,64 @@ public class GuildMusicManager {
     public MessageChannel getTextChannel() {
         return textChannel;
     }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Marca o manager como em uso, cancelando a contagem de ociosidade.
+     *
+     * @return false se ele já foi liberado e não pode mais ser usado
+     */
+    public boolean touch() {
+        while (true) {
+            State current = state.get();
+            if (current == State.RELEASED) {
+                return false;
+            }
+            if (current == State.ACTIVE || state.compareAndSet(State.IDLE, State.ACTIVE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Começa a contar a ociosidade (se ainda não estava contando).
+     *
+     * @return false se o manager já foi liberado
+     */
+    public boolean markIdle(long now) {
+        if (state.compareAndSet(State.ACTIVE, State.IDLE)) {
+            idleSince = now;
+        }
+        return state.get() == State.IDLE;
+    }
+
+    public long getIdleSince() {
+        return idleSince;
+    }
+
+    /**
+     * Libera os recursos da guild: fila, tarefas agendadas, diário, players e o produtor
+     * do buffer de áudio. Só acontece a partir de IDLE; um comando que chegou antes
+     * (e voltou o estado para ACTIVE) cancela a liberação.
+     *
+     * @return true se este chamador liberou o manager
+     */
+    public boolean release() {
+        if (!state.compareAndSet(State.IDLE, State.RELEASED)) {
+            return false;
+        }
+
+        scheduler.close();
+        audioPlayer.destroy();
+        if (standby != null) {
+            standby.destroy();
+        }
+        if (sendHandler instanceof JitterBufferedSendHandler buffered) {
+            buffered.close();
+        }
+        return true;
+    }
 }
@@ -0,0 +1,156 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.tomaz.boomslime.config.BotConfig;
+import com.tomaz.boomslime.util.Metrics;
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Send handler com buffer de jitter: um produtor puxa os frames do handler de origem
+ * ({@link AudioPlayerSendHandler} ou {@link CrossfadeSendHandler}) para um anel de
+ * buffers diretos alocados uma vez, e a thread de envio do JDA só entrega o próximo
+ * buffer pronto, sem bloquear nem alocar. Um engasgo do decoder menor que o anel não
+ * vira frame perdido.
+ * <p>
+ * Os produtores das guilds se dividem num pool pequeno ({@code AUDIO_PRODUCER_THREADS});
+ * a tarefa de cada anel nunca roda em duas threads ao mesmo tempo, então cada anel tem um
+ * único produtor e um único consumidor, coordenados só por {@code head}/{@code tail} voláteis.
+ * Guilds sem música tocando não produzem nada.
+ * <p>
+ * {@link #flush} descarta o que ainda está no anel (skip/stop): quem aplica é o consumidor,
+ * dono de {@code head}, na próxima chamada de {@link #canProvide}. Os frames descartados
+ * contam como overrun da guild.
+ */
+public class JitterBufferedSendHandler implements AudioSendHandler {
+    private static final int SLOT_BYTES = 4096;
+    private static final long FRAME_MS = 20;
+
+    private static final AtomicInteger PRODUCER_IDS = new AtomicInteger();
+    private static final ScheduledExecutorService PRODUCERS = Executors.newScheduledThreadPool(
+        Integer.parseInt(BotConfig.get("AUDIO_PRODUCER_THREADS",
+            String.valueOf(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2))))),
+        r -> {
+            Thread t = new Thread(r, "AudioFrameProducer-" + PRODUCER_IDS.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+
+    private final AudioSendHandler source;
+    private final TrackScheduler scheduler;
+    private final ByteBuffer[] slots;
+    private final Metrics.Counter underruns;
+    private final Metrics.Counter overruns;
+    private final ScheduledFuture<?> producer;
+    private final long guildId;
+
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long flushTo = 0;
+    private boolean lent = false;
+
+    public JitterBufferedSendHandler(AudioSendHandler source, TrackScheduler scheduler, long guildId, int frames) {
+        this.source = source;
+        this.scheduler = scheduler;
+        this.guildId = guildId;
+        this.slots = new ByteBuffer[Math.max(2, frames)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = ByteBuffer.allocateDirect(SLOT_BYTES);
+        }
+
+        Metrics metrics = Metrics.getInstance();
+        this.underruns = metrics.counter("audio.underruns." + guildId);
+        this.overruns = metrics.counter("audio.overruns." + guildId);
+        metrics.gauge("audio.buffered_frames." + guildId, () -> tail - head);
+
+        this.producer = PRODUCERS.scheduleAtFixedRate(this::fill, 0, FRAME_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Produtor: completa o anel com os frames que a origem já tiver. Sem música tocando
+     * (ou pausada) a passada termina sem tocar no decoder nem no mix.
+     */
+    private void fill() {
+        try {
+            AudioPlayer player = scheduler.getPlayer();
+            if (player.getPlayingTrack() == null || player.isPaused()) {
+                return;
+            }
+
+            while (tail - head < slots.length && source.canProvide()) {
+                ByteBuffer frame = source.provide20MsAudio();
+                ByteBuffer slot = slots[(int) (tail % slots.length)];
+                slot.clear();
+                if (frame.remaining() > slot.capacity()) {
+                    frame.limit(frame.position() + slot.capacity());
+                }
+                slot.put(frame).flip();
+                tail++;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("erro ao produzir frame de audio: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean canProvide() {
+        // o buffer entregue na chamada anterior já foi lido pelo JDA: devolve ao produtor
+        if (lent) {
+            lent = false;
+            head++;
+        }
+
+        long target = flushTo;
+        if (target > head) {
+            overruns.add(target - head);
+            head = target;
+        }
+
+        if (tail - head > 0) {
+            return true;
+        }
+
+        AudioPlayer player = scheduler.getPlayer();
+        if (player.getPlayingTrack() != null && !player.isPaused()) {
+            underruns.increment();
+        }
+        return false;
+    }
+
+    @Override
+    public ByteBuffer provide20MsAudio() {
+        lent = true;
+        return slots[(int) (head % slots.length)];
+    }
+
+    /**
+     * Descarta os frames que já estão no anel, para a música que acabou de ser trocada ou
+     * parada não continuar tocando pelo tamanho do buffer. Pode ser chamado de qualquer thread.
+     */
+    public void flush() {
+        flushTo = tail;
+    }
+
+    @Override
+    public boolean isOpus() {
+        return source.isOpus();
+    }
+
+    /**
+     * Para o produtor deste anel e tira as métricas da guild (ela não vai mais tocar).
+     */
+    public void close() {
+        producer.cancel(false);
+        Metrics metrics = Metrics.getInstance();
+        metrics.removeGauge("audio.buffered_frames." + guildId);
+        metrics.removeCounter("audio.underruns." + guildId);
+        metrics.removeCounter("audio.overruns." + guildId);
+    }
+}
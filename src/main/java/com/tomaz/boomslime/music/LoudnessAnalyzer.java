@@ -0,0 +1,285 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.config.BotConfig;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mede a loudness integrada (EBU R128, filtro ebur128 do ffmpeg) de cada track uma única
+ * vez, logo depois do download, e grava o ganho até o alvo no próprio arquivo (filtro
+ * {@code volume} do ffmpeg, recodificando no mesmo formato). Assim a reprodução fica no
+ * volume 100 e o Opus do cache continua passando direto para o Discord; nenhuma análise
+ * roda durante a reprodução.
+ * <p>
+ * O ganho só atenua (no máximo 0 dB). Se o arquivo não puder ser reescrito, o ganho fica
+ * no índice e é aplicado como volume do player ({@link #volumeFor}), que recodifica.
+ */
+public class LoudnessAnalyzer {
+    private static final Pattern INTEGRATED_PATTERN = Pattern.compile("^\\s*I:\\s*(-?[0-9.]+) LUFS");
+    private static final float MIN_GAIN_DB = -12f;
+    private static final float MAX_GAIN_DB = 0f;
+    private static final long FFMPEG_TIMEOUT_SECONDS = 120;
+    /** Diferença abaixo da qual não vale recodificar o arquivo. */
+    private static final float GAIN_TOLERANCE_DB = 0.5f;
+
+    private final TrackCacheIndex cacheIndex;
+    private final ProcessSlots processSlots;
+    private final String bitrate;
+    private final boolean enabled;
+    private final float targetLufs;
+    private final BlockingQueue<String> pending;
+    private final Set<String> queued;
+
+    /**
+     * @param bitrate bitrate usado ao reescrever o arquivo com o ganho (o mesmo dos downloads)
+     */
+    public LoudnessAnalyzer(TrackCacheIndex cacheIndex, ProcessSlots processSlots, String bitrate) {
+        this.cacheIndex = cacheIndex;
+        this.processSlots = processSlots;
+        this.bitrate = bitrate;
+        this.enabled = Boolean.parseBoolean(BotConfig.get("LOUDNESS_NORMALIZATION", "true"));
+        this.targetLufs = Float.parseFloat(BotConfig.get("LOUDNESS_TARGET_LUFS", "-14"));
+        this.pending = new LinkedBlockingQueue<>();
+        this.queued = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Inicia a análise em segundo plano, incluindo as tracks do cache que ainda não têm ganho.
+     */
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        for (TrackCacheIndex.CacheEntry entry : cacheIndex.entries()) {
+            if (Float.isNaN(entry.getGainDb())) {
+                submit(entry.getTrackId());
+            }
+        }
+
+        Thread thread = new Thread(this::analyzeLoop, "LoudnessAnalyzer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Agenda a análise de um arquivo recém-baixado (caminho com "[trackId]" no nome).
+     */
+    public void submitFile(String filePath) {
+        if (filePath != null) {
+            submit(TrackCacheIndex.parseTrackId(filePath));
+        }
+    }
+
+    private void submit(String trackId) {
+        if (enabled && trackId != null && Float.isNaN(cacheIndex.getGainDb(trackId)) && queued.add(trackId)) {
+            pending.offer(trackId);
+        }
+    }
+
+    /**
+     * Volume do lavaplayer (100 = original) que aplica o ganho que ficou no índice: 100 para
+     * os arquivos que já foram reescritos com o ganho.
+     */
+    public int volumeFor(String identifier) {
+        if (!enabled || identifier == null) {
+            return 100;
+        }
+
+        float gainDb = cacheIndex.getGainDb(TrackCacheIndex.parseTrackId(identifier));
+        if (Float.isNaN(gainDb) || gainDb >= 0) {
+            // ganhos positivos gravados por versões anteriores também viram 100
+            return 100;
+        }
+        return (int) Math.round(100 * Math.pow(10, gainDb / 20.0));
+    }
+
+    private void analyzeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            String trackId;
+            try {
+                trackId = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                Path file = cacheIndex.lookup(trackId);
+                if (file != null) {
+                    Float loudness = measure(file);
+                    if (loudness != null) {
+                        float gain = Math.max(MIN_GAIN_DB, Math.min(MAX_GAIN_DB, targetLufs - loudness));
+                        if (gain > -GAIN_TOLERANCE_DB || applyGain(file, gain)) {
+                            // ganho já está no arquivo: toca no volume 100
+                            cacheIndex.setGainDb(trackId, 0f);
+                        } else {
+                            cacheIndex.setGainDb(trackId, gain);
+                        }
+                        System.out.println("🔊 loudness de " + trackId + ": " + loudness + " LUFS, ganho " + gain + " dB");
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                queued.remove(trackId);
+            }
+        }
+    }
+
+    /**
+     * Reescreve o arquivo com o ganho aplicado, no mesmo formato e bitrate, trocando o
+     * original de forma atômica (quem já está tocando continua lendo o arquivo antigo).
+     *
+     * @return false se o formato não for suportado ou o ffmpeg falhar
+     */
+    private boolean applyGain(Path file, float gainDb) throws InterruptedException {
+        String name = file.getFileName().toString();
+        String codec;
+        String format;
+        if (name.endsWith(".opus")) {
+            codec = "libopus";
+            format = "opus";
+        } else if (name.endsWith(".mp3")) {
+            codec = "libmp3lame";
+            format = "mp3";
+        } else {
+            return false;
+        }
+
+        Path partial = file.resolveSibling(name + ".gain.part");
+        String ffmpegPath = BotConfig.get("FFMPEG_PATH");
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath != null && !ffmpegPath.isEmpty() ? ffmpegPath : "ffmpeg");
+        command.add("-y");
+        command.add("-loglevel");
+        command.add("error");
+        command.add("-i");
+        command.add(file.toString());
+        command.add("-vn");
+        command.add("-map_metadata");
+        command.add("0");
+        command.add("-af");
+        command.add(String.format(Locale.ROOT, "volume=%.2fdB", gainDb));
+        command.add("-c:a");
+        command.add(codec);
+        command.add("-b:a");
+        command.add(bitrate);
+        if (format.equals("opus")) {
+            command.add("-ar");
+            command.add("48000");
+        }
+        command.add("-f");
+        command.add(format);
+        command.add(partial.toString());
+
+        processSlots.acquire(DownloadPriority.PREFETCH);
+        Process process = null;
+        try {
+            if (!Files.exists(file)) {
+                return false;
+            }
+
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            process = pb.start();
+
+            if (!process.waitFor(FFMPEG_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                System.err.println("ffmpeg falhou ao aplicar o ganho em " + name);
+                Files.deleteIfExists(partial);
+                return false;
+            }
+
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cacheIndex.put(file);
+            return true;
+        } catch (IOException e) {
+            System.err.println("erro ao aplicar o ganho em " + name + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {}
+            return false;
+        } finally {
+            processSlots.release();
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * @return loudness integrada em LUFS, ou null se o ffmpeg falhar
+     */
+    private Float measure(Path file) throws InterruptedException {
+        String ffmpegPath = BotConfig.get("FFMPEG_PATH");
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath != null && !ffmpegPath.isEmpty() ? ffmpegPath : "ffmpeg");
+        command.add("-hide_banner");
+        command.add("-nostats");
+        command.add("-i");
+        command.add(file.toString());
+        command.add("-vn");
+        command.add("-af");
+        command.add("ebur128=framelog=quiet");
+        command.add("-f");
+        command.add("null");
+        command.add("-");
+
+        // processo em segundo plano: entra por último na fila de vagas de processo
+        processSlots.acquire(DownloadPriority.PREFETCH);
+        Process process = null;
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            process = pb.start();
+
+            Float loudness = null;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Matcher matcher = INTEGRATED_PATTERN.matcher(line);
+                    if (matcher.find()) {
+                        // o resumo final vem por último
+                        loudness = Float.parseFloat(matcher.group(1));
+                    }
+                }
+            }
+
+            if (!process.waitFor(FFMPEG_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                System.err.println("ffmpeg falhou ao medir loudness de " + file.getFileName());
+                return null;
+            }
+            return loudness;
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("erro ao medir loudness de " + file.getFileName() + ": " + e.getMessage());
+            return null;
+        } finally {
+            processSlots.release();
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
@@ -1,9 +1,18 @@
 package com.tomaz.boomslime.music;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
 import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
@@ -11,28 +20,83 @@ import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.tomaz.boomslime.config.BotConfig;
 import com.tomaz.boomslime.services.SpotifyService;
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+import com.tomaz.boomslime.util.CircuitBreaker;
+import com.tomaz.boomslime.util.Metrics;
+import com.tomaz.boomslime.util.TimerService;
 
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.GuildVoiceState;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.channel.middleman.AudioChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildMessageChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.entities.channel.unions.AudioChannelUnion;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.managers.AudioManager;
 
 public class PlayerManager {
     private static PlayerManager INSTANCE;
+    private static final long IDLE_CHECK_MS = 15_000;
+
+    /**
+     * Por que uma guild está ociosa, com a mensagem mandada ao sair do canal de voz.
+     */
+    private enum IdleReason {
+        EMPTY("> 💤 Left the voice channel because the queue has been empty for a while."),
+        ALONE("> 💤 Left the voice channel because nobody else is listening."),
+        GONE(null);
+
+        private final String message;
+
+        IdleReason(String message) {
+            this.message = message;
+        }
+    }
 
     private final AudioPlayerManager audioPlayerManager;
-    private final Map<Long, GuildMusicManager> musicManagers;
+    private final ConcurrentHashMap<Long, GuildMusicManager> musicManagers;
+    private final long idleDisconnectMs;
+    private final long aloneDisconnectMs;
+    private final Metrics.Counter releasedGuilds;
+    private volatile JDA jda;
+    private final boolean streamingPlayback;
+    private final long crossfadeMs;
+    private final long preloadMs;
+    private final int bufferFrames;
 
     private PlayerManager() {
-        this.musicManagers = new HashMap<>();
+        this.musicManagers = new ConcurrentHashMap<>();
+        this.idleDisconnectMs = Math.max(0, Long.parseLong(BotConfig.get("IDLE_DISCONNECT_SECONDS", "300"))) * 1000;
+        this.aloneDisconnectMs = Math.max(0, Long.parseLong(BotConfig.get("ALONE_DISCONNECT_SECONDS", "60"))) * 1000;
         this.audioPlayerManager = new DefaultAudioPlayerManager();
+        this.streamingPlayback = Boolean.parseBoolean(BotConfig.get("STREAMING_PLAYBACK", "false"));
+        this.crossfadeMs = Math.max(0, Long.parseLong(BotConfig.get("CROSSFADE_MS", "0")));
+        this.preloadMs = Math.max(0, Long.parseLong(BotConfig.get("GAPLESS_PRELOAD_MS", "5000")));
+        this.bufferFrames = Math.max(0, Integer.parseInt(BotConfig.get("AUDIO_BUFFER_FRAMES", "5")));
+
+        if (crossfadeMs > 0) {
+            // o crossfade mistura PCM; sem ele o lavaplayer repassa o Opus direto
+            this.audioPlayerManager.getConfiguration().setOutputFormat(StandardAudioDataFormats.DISCORD_PCM_S16_BE);
+        }
 
+        this.audioPlayerManager.registerSourceManager(ProgressiveAudioSourceManager.getInstance());
         AudioSourceManagers.registerRemoteSources(this.audioPlayerManager);
         AudioSourceManagers.registerLocalSource(this.audioPlayerManager);
 
+        SpotifyDownloader.getInstance().getCachePolicy().setPinnedTracks(this::getActiveTrackIds);
+
+        Metrics metrics = Metrics.getInstance();
+        this.releasedGuilds = metrics.counter("guilds.released");
+        metrics.gauge("guilds.registered", musicManagers::size);
+        if (idleDisconnectMs > 0 || aloneDisconnectMs > 0) {
+            TimerService.getInstance().scheduleWithFixedDelay("guild-idle-check", this::releaseIdleGuilds,
+                IDLE_CHECK_MS, IDLE_CHECK_MS);
+        }
+
         System.out.println("PlayerManager inicializado (somente Spotify)!");
     }
 
@@ -43,12 +107,257 @@ public class PlayerManager {
         return INSTANCE;
     }
 
-    public synchronized GuildMusicManager getMusicManager(Guild guild) {
-        return this.musicManagers.computeIfAbsent(guild.getIdLong(), (guildId) -> {
-            final GuildMusicManager guildMusicManager = new GuildMusicManager(this.audioPlayerManager);
-            guild.getAudioManager().setSendingHandler(guildMusicManager.getSendHandler());
-            return guildMusicManager;
+    /**
+     * Manager da guild, criado na primeira vez e de novo depois que a guild foi liberada
+     * por ociosidade. A leitura não trava; só a criação passa pelo computeIfAbsent.
+     */
+    public GuildMusicManager getMusicManager(Guild guild) {
+        this.jda = guild.getJDA();
+        long id = guild.getIdLong();
+
+        while (true) {
+            GuildMusicManager manager = musicManagers.get(id);
+            if (manager == null) {
+                manager = musicManagers.computeIfAbsent(id, (guildId) -> {
+                    final GuildMusicManager guildMusicManager = new GuildMusicManager(
+                        this.audioPlayerManager, guildId, crossfadeMs, preloadMs, bufferFrames);
+                    guildMusicManager.getScheduler().setTrackLoader(
+                        (tracks, priority) -> loadTracks(guildId, guildMusicManager, tracks, priority));
+                    guild.getAudioManager().setSendingHandler(guildMusicManager.getSendHandler());
+                    return guildMusicManager;
+                });
+            }
+
+            if (manager.touch()) {
+                return manager;
+            }
+            // liberado entre o get e o touch: sai do registro e é criado de novo
+            musicManagers.remove(id, manager);
+        }
+    }
+
+    /**
+     * Política de ociosidade: uma guild sem nada tocando nem na fila por
+     * {@code IDLE_DISCONNECT_SECONDS}, ou sozinha no canal de voz por
+     * {@code ALONE_DISCONNECT_SECONDS}, sai do canal e libera players, buffer e tarefas.
+     */
+    private void releaseIdleGuilds() {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<Long, GuildMusicManager> entry : musicManagers.entrySet()) {
+            long guildId = entry.getKey();
+            GuildMusicManager manager = entry.getValue();
+            Guild guild = jda != null ? jda.getGuildById(guildId) : null;
+
+            IdleReason reason = guild != null ? idleReason(guild, manager) : IdleReason.GONE;
+            if (reason == null) {
+                manager.touch();
+                continue;
+            }
+            if (!manager.markIdle(now)) {
+                continue;
+            }
+
+            long limit = switch (reason) {
+                case EMPTY -> idleDisconnectMs;
+                case ALONE -> aloneDisconnectMs;
+                case GONE -> 0;
+            };
+            if (now - manager.getIdleSince() >= limit) {
+                release(guildId, guild, manager, reason);
+            }
+        }
+    }
+
+    private IdleReason idleReason(Guild guild, GuildMusicManager manager) {
+        AudioChannelUnion channel = guild.getAudioManager().getConnectedChannel();
+        if (aloneDisconnectMs > 0 && channel != null) {
+            boolean alone = true;
+            for (Member member : channel.getMembers()) {
+                if (!member.getUser().isBot()) {
+                    alone = false;
+                    break;
+                }
+            }
+            if (alone) {
+                return IdleReason.ALONE;
+            }
+        }
+
+        if (idleDisconnectMs > 0 && manager.getScheduler().isIdle()) {
+            return IdleReason.EMPTY;
+        }
+        return null;
+    }
+
+    private void release(long guildId, Guild guild, GuildMusicManager manager, IdleReason reason) {
+        if (!manager.release()) {
+            // um comando pegou o manager de volta
+            return;
+        }
+
+        musicManagers.remove(guildId, manager);
+        DownloadManager.getInstance().cancelAllDownloads(guildId);
+
+        if (guild != null) {
+            AudioManager audioManager = guild.getAudioManager();
+            boolean connected = audioManager.isConnected();
+            // um comando depois da liberação já pode ter criado outro manager para a guild
+            if (!musicManagers.containsKey(guildId)) {
+                audioManager.closeAudioConnection();
+            }
+            if (audioManager.getSendingHandler() == manager.getSendHandler()) {
+                audioManager.setSendingHandler(null);
+            }
+
+            MessageChannel textChannel = manager.getTextChannel();
+            if (connected && textChannel != null && reason.message != null) {
+                textChannel.sendMessage(reason.message).queue();
+            }
+        }
+
+        releasedGuilds.increment();
+        System.out.println("💤 guild " + guildId + " liberada por ociosidade (" + reason.name().toLowerCase() + ")");
+    }
+
+    /**
+     * Restaura as sessões gravadas no diário de cada guild antes do restart: reconecta no
+     * canal de voz e recoloca a fila, continuando a música atual de onde parou. Diários sem
+     * nada para tocar, ou de guilds e canais que não existem mais, são apagados.
+     */
+    public void restoreSessions(JDA jda) {
+        this.jda = jda;
+        if (!QueueJournal.isEnabled() || !Files.isDirectory(QueueJournal.directory())) {
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(QueueJournal.directory(), "*.journal")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            System.err.println("erro ao listar diarios da fila: " + e.getMessage());
+            return;
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Guild guild;
+            try {
+                guild = jda.getGuildById(Long.parseLong(name.substring(0, name.length() - ".journal".length())));
+            } catch (NumberFormatException e) {
+                guild = null;
+            }
+
+            QueueJournal.State state = QueueJournal.replay(file);
+            AudioChannel voiceChannel = guild != null && !state.isEmpty()
+                ? guild.getChannelById(AudioChannel.class, state.getVoiceChannelId())
+                : null;
+            if (voiceChannel == null) {
+                QueueJournal.delete(file);
+                continue;
+            }
+
+            GuildMusicManager musicManager = getMusicManager(guild);
+            guild.getAudioManager().openAudioConnection(voiceChannel);
+
+            GuildMessageChannel textChannel = guild.getChannelById(GuildMessageChannel.class, state.getTextChannelId());
+            if (textChannel != null) {
+                musicManager.setTextChannel(textChannel);
+            }
+            musicManager.getScheduler().setVoiceChannel(voiceChannel.getIdLong());
+            musicManager.getScheduler().restore(state);
+
+            int restored = state.getQueue().size() + (state.getCurrent() != null ? 1 : 0);
+            System.out.println("♻ sessao restaurada em " + guild.getName() + ": " + restored + " musicas");
+            if (textChannel != null) {
+                textChannel.sendMessage("> ↻ Back after a restart, resuming the queue (" + restored + " songs).").queue();
+            }
+        }
+    }
+
+    /**
+     * TrackIds que estao tocando, na fila ou no historico de alguma guild, ou sendo baixados.
+     * Usado pela politica de cache para nunca remover arquivos em uso.
+     */
+    public Set<String> getActiveTrackIds() {
+        Set<String> trackIds = new HashSet<>();
+        for (GuildMusicManager manager : musicManagers.values()) {
+            // leitura sem esperar pela caixa da guild; a música atual é lida direto do player
+            addTrackId(trackIds, manager.getAudioPlayer().getPlayingTrack());
+            trackIds.addAll(manager.getScheduler().getInUseTrackIds());
+        }
+
+        trackIds.addAll(DownloadManager.getInstance().getInFlightKeys());
+        return trackIds;
+    }
+
+    private void addTrackId(Set<String> trackIds, AudioTrack track) {
+        if (track == null) {
+            return;
+        }
+
+        String trackId = TrackCacheIndex.parseTrackId(track.getIdentifier());
+        if (trackId != null) {
+            trackIds.add(trackId);
+        }
+    }
+
+    /**
+     * Baixa as entradas preguiçosas da fila (num único lote) e carrega cada arquivo no
+     * lavaplayer. Cancelar um dos futures cancela o download daquela track.
+     */
+    private List<CompletableFuture<AudioTrack>> loadTracks(long guildId, GuildMusicManager musicManager,
+                                                          List<SpotifyTrackInfo> tracks, DownloadPriority priority) {
+        List<String> urls = new ArrayList<>();
+        for (SpotifyTrackInfo track : tracks) {
+            urls.add(track.getUrl());
+        }
+
+        List<CompletableFuture<AudioTrack>> loaded = new ArrayList<>();
+        for (CompletableFuture<String> download : DownloadManager.getInstance().requestTracks(guildId, urls, priority)) {
+            CompletableFuture<AudioTrack> result = download.thenCompose(filePath -> filePath != null
+                ? loadFile(musicManager, filePath)
+                : CompletableFuture.completedFuture(null));
+
+            result.whenComplete((track, error) -> {
+                if (result.isCancelled()) {
+                    download.cancel(false);
+                }
+            });
+            loaded.add(result);
+        }
+        return loaded;
+    }
+
+    private CompletableFuture<AudioTrack> loadFile(GuildMusicManager musicManager, String filePath) {
+        CompletableFuture<AudioTrack> result = new CompletableFuture<>();
+
+        audioPlayerManager.loadItemOrdered(musicManager, filePath, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                result.complete(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                result.complete(playlist.getTracks().isEmpty() ? null : playlist.getTracks().get(0));
+            }
+
+            @Override
+            public void noMatches() {
+                System.err.println("❌ arquivo não encontrado: " + filePath);
+                result.complete(null);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                System.err.println("❌ erro ao carregar " + filePath + ": " + exception.getMessage());
+                result.complete(null);
+            }
         });
+        return result;
     }
 
     public void loadAndPlay(MessageReceivedEvent event, String input) {
@@ -75,6 +384,7 @@ public class PlayerManager {
         }
 
         musicManager.setTextChannel(event.getChannel());
+        musicManager.getScheduler().setVoiceChannel(audioChannel.getIdLong());
 
         long guildId = event.getGuild().getIdLong();
         DownloadManager.getInstance().getGuildState(guildId).reset();
@@ -86,27 +396,36 @@ public class PlayerManager {
             return;
         }
 
-        if (spotifyService.isPlaylist(input)) {
+        if (spotifyService.isCollection(input)) {
             loadPlaylist(event, input, musicManager);
             return;
         }
 
+        String breakerMessage = unavailableMessage();
+        if (breakerMessage != null) {
+            event.getChannel().sendMessage(breakerMessage).queue();
+            return;
+        }
+
         event.getChannel().sendMessage("> Downloading and playing in the queue, one moment...").queue();
 
         DownloadManager downloadManager = DownloadManager.getInstance();
+        long startTime = System.currentTimeMillis();
 
-        downloadManager.submitDownload(guildId, () -> {
-            long startTime = System.currentTimeMillis();
-            SpotifyDownloader downloader = SpotifyDownloader.getInstance();
-            String filePath = downloader.downloadTrack(input);
+        CompletableFuture<String> download = streamingPlayback
+            ? downloadManager.requestStream(guildId, input)
+            : downloadManager.requestTrack(guildId, input);
 
+        download.thenAccept(filePath -> {
             if (filePath == null) {
-                event.getChannel().sendMessage("> ⚠ Three attempts were made to download the requested song, but a download error occurred.").queue();
-                return null;
+                String unavailable = unavailableMessage();
+                event.getChannel().sendMessage(unavailable != null ? unavailable
+                    : "> ⚠ The requested song could not be downloaded. It may be unavailable, or a download error occurred.").queue();
+                return;
             }
 
             long downloadTime = (System.currentTimeMillis() - startTime) / 1000;
-            System.out.println("⏱️ Download concluído em " + downloadTime + "s");
+            System.out.println("⏱️ " + (streamingPlayback ? "Pronto para tocar em " : "Download concluído em ") + downloadTime + "s");
 
             this.audioPlayerManager.loadItemOrdered(musicManager, filePath, new AudioLoadResultHandler() {
                 @Override
@@ -146,11 +465,22 @@ public class PlayerManager {
                     exception.printStackTrace();
                 }
             });
-
-            return filePath;
         });
     }
 
+    /**
+     * Mensagem para o canal quando o circuit breaker dos downloads esta aberto, ou null.
+     */
+    static String unavailableMessage() {
+        CircuitBreaker breaker = SpotifyDownloader.getInstance().getCircuitBreaker();
+        if (!breaker.isOpen()) {
+            return null;
+        }
+
+        long seconds = Math.max(1, breaker.remainingOpenMillis() / 1000);
+        return "> ⚠ Downloads are temporarily paused because the music source keeps failing. Try again in " + seconds + "s.";
+    }
+
     private void loadPlaylist(MessageReceivedEvent event, String playlistUrl, GuildMusicManager musicManager) {
         event.getChannel().sendMessage("> Loading playlist and queuing...").queue();
 
@@ -159,77 +489,38 @@ public class PlayerManager {
 
         downloadManager.submitDownload(guildId, () -> {
             SpotifyService spotifyService = SpotifyService.getInstance();
-            List<String> trackUrls = spotifyService.getPlaylistTracks(playlistUrl);
-
-            if (trackUrls.isEmpty()) {
-                event.getChannel().sendMessage("> Error enqueuing playlist. The playlist may be private, empty, or the player may have an error.").queue();
-                return null;
-            }
-
-            event.getChannel().sendMessage("> " + trackUrls.size() + " Found songs. Downloading them...").queue();
-
-            for (int i = 0; i < trackUrls.size(); i++) {
-                if (Thread.currentThread().isInterrupted()) {
-                    System.out.println("⏹ Download de playlist interrompido");
-                    event.getChannel().sendMessage("> ⏹ Playlist download canceled.").queue();
-                    return null;
-                }
-
-                final String trackUrl = trackUrls.get(i);
-                final int trackNumber = i + 1;
-                final int totalTracks = trackUrls.size();
-
-                SpotifyDownloader downloader = SpotifyDownloader.getInstance();
-
-                String filePath = downloader.downloadTrack(trackUrl);
+            PlaylistLoader loader = new PlaylistLoader(event.getChannel(), musicManager);
 
-                if (filePath == null) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        System.out.println("⏹ Download de playlist interrompido");
-                        return null;
+            boolean loaded = spotifyService.streamCollectionTracks(playlistUrl, new SpotifyService.PlaylistListener() {
+                @Override
+                public void onTotal(int total) {
+                    loader.setExpectedTotal(total);
+                    if (total > 0) {
+                        event.getChannel().sendMessage("> " + total + " Found songs. Adding them to the queue...").queue();
                     }
-
-                    System.err.println("❌ erro ao baixar track #" + trackNumber);
-                    event.getChannel().sendMessage("> ⚠ Track number  #" + trackNumber + " was skipped because three attempts to download were made it and all three failed.").queue();
-                    continue;
                 }
 
-                this.audioPlayerManager.loadItemOrdered(musicManager, filePath, new AudioLoadResultHandler() {
-                    @Override
-                    public void trackLoaded(AudioTrack track) {
-                        musicManager.getScheduler().queue(track);
-
-                        System.out.println("✓ [" + trackNumber + "/" + totalTracks + "] " + track.getInfo().title);
-                    }
-
-                    @Override
-                    public void playlistLoaded(AudioPlaylist playlist) {
-                    }
+                @Override
+                public void onTracks(List<SpotifyTrackInfo> tracks) {
+                    loader.append(tracks);
+                }
+            });
 
-                    @Override
-                    public void noMatches() {
-                        System.err.println("❌ arquivo não encontrado: " + filePath);
-                    }
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
 
-                    @Override
-                    public void loadFailed(FriendlyException exception) {
-                        System.err.println("❌ erro ao carregar track #" + trackNumber + ": " + exception.getMessage());
-                    }
-                });
+            if (loader.size() == 0) {
+                event.getChannel().sendMessage("> Error enqueuing playlist. The playlist may be private, empty, or the player may have an error.").queue();
+                return null;
+            }
 
-                if (i < trackUrls.size() - 1) {
-                    try {
-                        Thread.sleep(5000);
-                    } catch (InterruptedException e) {
-                        System.out.println("⏹ Download de playlist interrompido durante delay");
-                        Thread.currentThread().interrupt();
-                        return null;
-                    }
-                }
+            if (!loaded) {
+                System.err.println("❌ playlist carregada parcialmente: " + loader.size() + " músicas");
             }
 
-            event.getChannel().sendMessage("> Complete playlist: " + trackUrls.size() + " songs lined up.").queue();
-            return "playlist_complete";
+            loader.complete();
+            return "playlist_started";
         });
     }
 }
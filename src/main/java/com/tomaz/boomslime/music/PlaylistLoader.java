@@ -0,0 +1,58 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coloca as tracks de uma playlist na fila assim que cada página chega do Spotify,
+ * como entradas preguiçosas ({@link QueuedTrack#lazy}). Nada é baixado aqui: o
+ * {@link TrackScheduler} baixa só as próximas músicas, conforme a fila anda.
+ * {@link #complete()} marca o fim da lista.
+ */
+public class PlaylistLoader {
+    private final MessageChannel channel;
+    private final GuildMusicManager musicManager;
+
+    private int size = 0;
+    private int expectedTotal = 0;
+
+    public PlaylistLoader(MessageChannel channel, GuildMusicManager musicManager) {
+        this.channel = channel;
+        this.musicManager = musicManager;
+    }
+
+    /**
+     * Total informado pelo Spotify, usado só nas mensagens de progresso.
+     */
+    public synchronized void setExpectedTotal(int total) {
+        this.expectedTotal = total;
+    }
+
+    /**
+     * Adiciona a próxima página de tracks, na ordem da playlist, ao fim da fila.
+     */
+    public synchronized void append(List<SpotifyTrackInfo> tracks) {
+        List<QueuedTrack> entries = new ArrayList<>(tracks.size());
+        for (SpotifyTrackInfo track : tracks) {
+            entries.add(QueuedTrack.lazy(track));
+        }
+
+        musicManager.getScheduler().queueAll(entries);
+        size += entries.size();
+        System.out.println("✓ [" + size + "/" + Math.max(expectedTotal, size) + "] tracks na fila");
+    }
+
+    /**
+     * Não virão mais tracks.
+     */
+    public synchronized void complete() {
+        channel.sendMessage("> Complete playlist: " + size + " songs lined up.").queue();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,114 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.util.Metrics;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limite de processos spotdl/ffmpeg rodando ao mesmo tempo, separado do número de tarefas
+ * de download. Quem espera é atendido pela prioridade da sua tarefa ({@link DownloadPriority})
+ * e, dentro da mesma prioridade, por ordem de chegada.
+ * Usa ReentrantLock em vez de synchronized/wait para não prender a carrier thread quando
+ * as tarefas rodam em virtual threads.
+ */
+public class ProcessSlots {
+    private final int capacity;
+    private final PriorityQueue<Waiter> waiters;
+    private final AtomicLong sequence;
+    private final ReentrantLock lock;
+    private final Condition changed;
+    private int available;
+
+    public ProcessSlots(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.available = this.capacity;
+        this.waiters = new PriorityQueue<>();
+        this.sequence = new AtomicLong();
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+
+        Metrics.getInstance().gauge("downloads.processes.active", this::active);
+        Metrics.getInstance().gauge("downloads.processes.waiting", this::waiting);
+    }
+
+    /**
+     * Bloqueia até haver uma vaga para iniciar um processo. Deve ser pareado com {@link #release()}.
+     */
+    public void acquire() throws InterruptedException {
+        acquire(DownloadScheduler.currentPriority());
+    }
+
+    /**
+     * Igual a {@link #acquire()}, para quem não roda numa tarefa do {@link DownloadScheduler}.
+     */
+    public void acquire(DownloadPriority priority) throws InterruptedException {
+        Waiter me = new Waiter(priority, sequence.incrementAndGet());
+
+        lock.lock();
+        try {
+            waiters.add(me);
+            try {
+                while (available == 0 || waiters.peek() != me) {
+                    changed.await();
+                }
+            } catch (InterruptedException e) {
+                waiters.remove(me);
+                changed.signalAll();
+                throw e;
+            }
+
+            waiters.poll();
+            available--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            available++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long active() {
+        lock.lock();
+        try {
+            return capacity - available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    final long waiting() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final DownloadPriority priority;
+        private final long sequence;
+
+        Waiter(DownloadPriority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
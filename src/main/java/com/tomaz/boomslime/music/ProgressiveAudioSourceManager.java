@@ -0,0 +1,94 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerRegistry;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fonte do lavaplayer para tracks que ainda estão sendo baixadas. O identificador é o
+ * caminho final do arquivo: enquanto o download estiver registrado aqui, a track lê o
+ * arquivo parcial; depois disso o identificador cai na fonte local normalmente.
+ */
+public class ProgressiveAudioSourceManager implements AudioSourceManager {
+    private static ProgressiveAudioSourceManager INSTANCE;
+
+    private final Map<String, ProgressiveDownload> downloads;
+    private final MediaContainerRegistry containerRegistry;
+
+    private ProgressiveAudioSourceManager() {
+        this.downloads = new ConcurrentHashMap<>();
+        this.containerRegistry = MediaContainerRegistry.DEFAULT_REGISTRY;
+    }
+
+    public static synchronized ProgressiveAudioSourceManager getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ProgressiveAudioSourceManager();
+        }
+        return INSTANCE;
+    }
+
+    void register(ProgressiveDownload download) {
+        downloads.put(download.getIdentifier(), download);
+    }
+
+    void unregister(ProgressiveDownload download) {
+        downloads.remove(download.getIdentifier(), download);
+    }
+
+    MediaContainerRegistry getContainerRegistry() {
+        return containerRegistry;
+    }
+
+    @Override
+    public String getSourceName() {
+        return "progressive";
+    }
+
+    @Override
+    public AudioItem loadItem(AudioPlayerManager manager, AudioReference reference) {
+        ProgressiveDownload download = downloads.get(reference.identifier);
+        if (download == null || download.isComplete()) {
+            return null;
+        }
+
+        SpotifyTrackInfo trackInfo = download.getTrackInfo();
+        AudioTrackInfo info = new AudioTrackInfo(
+            trackInfo.getTitle(),
+            trackInfo.getArtists(),
+            trackInfo.getDurationMs(),
+            download.getIdentifier(),
+            false,
+            trackInfo.getUrl());
+
+        return new ProgressiveAudioTrack(info, download, this);
+    }
+
+    @Override
+    public boolean isTrackEncodable(AudioTrack track) {
+        return false;
+    }
+
+    @Override
+    public void encodeTrack(AudioTrack track, DataOutput output) {
+    }
+
+    @Override
+    public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) {
+        return null;
+    }
+
+    @Override
+    public void shutdown() {
+        downloads.clear();
+    }
+}
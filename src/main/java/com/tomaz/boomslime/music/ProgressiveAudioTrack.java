@@ -0,0 +1,61 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDetection;
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDetectionResult;
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerHints;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.DelegatedAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+/**
+ * Track tocada a partir de um {@link ProgressiveDownload}. Detecta o container sobre o
+ * stream que cresce e delega a decodificação para a track do container (mp3 ou ogg).
+ */
+public class ProgressiveAudioTrack extends DelegatedAudioTrack {
+    private final ProgressiveDownload download;
+    private final ProgressiveAudioSourceManager sourceManager;
+
+    public ProgressiveAudioTrack(AudioTrackInfo trackInfo, ProgressiveDownload download,
+                                 ProgressiveAudioSourceManager sourceManager) {
+        super(trackInfo);
+        this.download = download;
+        this.sourceManager = sourceManager;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        try (GrowingFileInputStream stream = download.open()) {
+            String fileName = download.getFinalFile().getFileName().toString();
+            String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+
+            MediaContainerDetectionResult result = new MediaContainerDetection(
+                sourceManager.getContainerRegistry(),
+                new AudioReference(trackInfo.identifier, trackInfo.title),
+                stream,
+                MediaContainerHints.from(null, extension)
+            ).detectContainer();
+
+            if (!result.isContainerDetected()) {
+                throw new FriendlyException("Could not detect the format of the download.",
+                    FriendlyException.Severity.SUSPICIOUS, null);
+            }
+
+            processDelegate((InternalAudioTrack) result.getContainerDescriptor().createTrack(trackInfo, stream), executor);
+        }
+    }
+
+    @Override
+    protected AudioTrack makeShallowClone() {
+        return new ProgressiveAudioTrack(trackInfo, download, sourceManager);
+    }
+
+    @Override
+    public AudioSourceManager getSourceManager() {
+        return sourceManager;
+    }
+}
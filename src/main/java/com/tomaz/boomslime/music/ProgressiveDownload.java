@@ -0,0 +1,123 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Download em andamento que já pode ser tocado: o ffmpeg escreve em {@code partialFile}
+ * e os leitores ({@link GrowingFileInputStream}) esperam pelos bytes que ainda não chegaram.
+ */
+public class ProgressiveDownload {
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private final SpotifyTrackInfo trackInfo;
+    private final Path partialFile;
+    private final Path finalFile;
+    private final Object lock = new Object();
+    private volatile boolean complete = false;
+    private volatile boolean failed = false;
+
+    public ProgressiveDownload(SpotifyTrackInfo trackInfo, Path partialFile, Path finalFile) {
+        this.trackInfo = trackInfo;
+        this.partialFile = partialFile;
+        this.finalFile = finalFile;
+    }
+
+    public SpotifyTrackInfo getTrackInfo() {
+        return trackInfo;
+    }
+
+    public Path getPartialFile() {
+        return partialFile;
+    }
+
+    public Path getFinalFile() {
+        return finalFile;
+    }
+
+    /**
+     * Identificador usado no lavaplayer: o caminho final do arquivo, para que clones da
+     * track continuem funcionando pela fonte local depois que o download terminar.
+     */
+    public String getIdentifier() {
+        return finalFile.toAbsolutePath().toString();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public GrowingFileInputStream open() throws IOException {
+        return new GrowingFileInputStream(this, complete ? finalFile : partialFile);
+    }
+
+    /**
+     * Espera até o arquivo ter {@code bytes} escritos, o download terminar ou falhar.
+     * @return true se já dá para começar a tocar
+     */
+    public boolean awaitBuffered(long bytes, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        while (!complete && !failed && System.currentTimeMillis() < deadline) {
+            if (currentSize() >= bytes) {
+                return true;
+            }
+            synchronized (lock) {
+                lock.wait(POLL_INTERVAL_MS);
+            }
+        }
+        return complete || (!failed && currentSize() >= bytes);
+    }
+
+    /**
+     * Chamado pelo leitor quando chegou ao fim do que já foi escrito: espera um pouco por mais bytes.
+     * @return false se o download já terminou (não virão mais bytes)
+     */
+    boolean awaitData() throws IOException {
+        if (failed) {
+            throw new IOException("download falhou durante a reprodução");
+        }
+        if (complete) {
+            return false;
+        }
+
+        try {
+            synchronized (lock) {
+                lock.wait(POLL_INTERVAL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("leitura interrompida");
+        }
+        return true;
+    }
+
+    void markComplete() {
+        complete = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    void markFailed() {
+        failed = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private long currentSize() {
+        try {
+            return Files.size(complete ? finalFile : partialFile);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.tomaz.boomslime.config.BotConfig;
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Diário append-only da fila de uma guild, num arquivo mapeado em memória
+ * ({@code DATA_DIR/journal/<guildId>.journal}): cada mudança da fila e, de tempos em tempos,
+ * a posição da música atual viram um registro. Escrever é só copiar bytes para o mapa (o
+ * sistema operacional grava no disco), então um crash do processo não perde nada.
+ * <p>
+ * Registro: {@code [int tamanho][byte tipo][dados]}; o tamanho é escrito por último, então um
+ * registro pela metade tem tamanho 0 e marca o fim. Quando o arquivo enche, ele é reescrito
+ * só com o estado atual. Um escritor só: o {@link TrackScheduler} escreve de dentro da caixa da guild.
+ */
+public class QueueJournal {
+    private static final byte CHANNELS = 1;
+    private static final byte ENQUEUE = 2;
+    private static final byte ENQUEUE_ALL = 3;
+    private static final byte ENQUEUE_FRONT = 4;
+    private static final byte POLL = 5;
+    private static final byte CURRENT = 6;
+    private static final byte POSITION = 7;
+    private static final byte CLEAR = 8;
+
+    private static final int HEADER_BYTES = 5;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private QueueJournal(Path file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(BotConfig.get("QUEUE_JOURNAL", "true"));
+    }
+
+    public static Path directory() {
+        return BotConfig.getDataDir().resolve("journal");
+    }
+
+    public static Path fileFor(long guildId) {
+        return directory().resolve(guildId + ".journal");
+    }
+
+    /**
+     * Abre o diário da guild vazio (o conteúdo anterior já foi lido por {@link #replay}, se
+     * era para restaurar).
+     *
+     * @return o diário, ou null se estiver desligado ou o arquivo não puder ser mapeado
+     */
+    public static QueueJournal open(long guildId) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        int capacity = Math.max(16, Integer.parseInt(BotConfig.get("JOURNAL_SIZE_KB", "512"))) * 1024;
+        return open(fileFor(guildId), capacity);
+    }
+
+    /**
+     * Abre (vazio) o diário num arquivo qualquer, com {@code capacity} bytes mapeados.
+     */
+    static QueueJournal open(Path file, int capacity) {
+        try {
+            Files.createDirectories(file.getParent());
+            FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // truncar e mapear de novo estende o arquivo com páginas zeradas pelo sistema:
+            // nada a zerar aqui, e o replay para no primeiro tamanho 0
+            channel.truncate(0);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new QueueJournal(file, channel, buffer);
+        } catch (IOException e) {
+            System.err.println("erro ao abrir diario da fila " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Canal de voz e de texto da sessão, para reconectar depois de reiniciar.
+     */
+    public boolean channels(long voiceChannelId, long textChannelId) {
+        int start = begin(CHANNELS);
+        if (start < 0) {
+            return false;
+        }
+        try {
+            buffer.putLong(voiceChannelId);
+            buffer.putLong(textChannelId);
+        } catch (BufferOverflowException e) {
+            return abort(start);
+        }
+        return commit(start);
+    }
+
+    public boolean enqueue(QueuedTrack entry) {
+        return writeEntry(ENQUEUE, infoOf(entry));
+    }
+
+    public boolean enqueueFront(QueuedTrack entry) {
+        return writeEntry(ENQUEUE_FRONT, infoOf(entry));
+    }
+
+    public boolean enqueueAll(Collection<QueuedTrack> entries) {
+        int start = begin(ENQUEUE_ALL);
+        if (start < 0) {
+            return false;
+        }
+        try {
+            buffer.putInt(entries.size());
+            for (QueuedTrack entry : entries) {
+                putInfo(infoOf(entry));
+            }
+        } catch (BufferOverflowException e) {
+            return abort(start);
+        }
+        return commit(start);
+    }
+
+    public boolean poll() {
+        int start = begin(POLL);
+        return commit(start);
+    }
+
+    /**
+     * Música atual (tocando ou esperando o download), ou null quando nada toca.
+     */
+    public boolean current(SpotifyTrackInfo info) {
+        return writeEntry(CURRENT, info);
+    }
+
+    public boolean position(long positionMs) {
+        int start = begin(POSITION);
+        if (start < 0) {
+            return false;
+        }
+        try {
+            buffer.putLong(positionMs);
+        } catch (BufferOverflowException e) {
+            return abort(start);
+        }
+        return commit(start);
+    }
+
+    public boolean clear() {
+        int start = begin(CLEAR);
+        return commit(start);
+    }
+
+    /**
+     * Compacta: apaga os registros e escreve só o estado atual. Se nem o estado couber,
+     * o fim da fila fica de fora do diário.
+     */
+    public void rewrite(long voiceChannelId, long textChannelId, SpotifyTrackInfo current, long positionMs,
+                        TrackQueue queue) {
+        int used = buffer.position();
+        buffer.clear();
+        for (int i = 0; i < used + HEADER_BYTES && i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+
+        channels(voiceChannelId, textChannelId);
+        current(current);
+        position(positionMs);
+        for (int i = 0; i < queue.size(); i++) {
+            if (!enqueue(queue.get(i))) {
+                System.err.println("diario da fila cheio: " + (queue.size() - i) + " musicas ficaram de fora (" + file.getFileName() + ")");
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("erro ao fechar diario da fila: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fecha e apaga o diário: a sessão terminou e não há nada para restaurar.
+     */
+    public void discard() {
+        close();
+        delete(file);
+    }
+
+    /**
+     * Apaga o diário (a guild não tem mais nada para restaurar).
+     */
+    public static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("erro ao apagar diario da fila " + file + ": " + e.getMessage());
+        }
+    }
+
+    private boolean writeEntry(byte type, SpotifyTrackInfo info) {
+        int start = begin(type);
+        if (start < 0) {
+            return false;
+        }
+        try {
+            buffer.put((byte) (info != null ? 1 : 0));
+            if (info != null) {
+                putInfo(info);
+            }
+        } catch (BufferOverflowException e) {
+            return abort(start);
+        }
+        return commit(start);
+    }
+
+    private int begin(byte type) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_BYTES + 4) {
+            return -1;
+        }
+        buffer.position(start + 4);
+        buffer.put(type);
+        return start;
+    }
+
+    private boolean commit(int start) {
+        // sempre sobra espaço para o tamanho 0 que marca o fim
+        if (start < 0 || buffer.remaining() < 4) {
+            return abort(start);
+        }
+        buffer.putInt(start, buffer.position() - start - 4);
+        return true;
+    }
+
+    private boolean abort(int start) {
+        if (start >= 0) {
+            for (int i = start; i < buffer.position(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.position(start);
+        }
+        return false;
+    }
+
+    private void putInfo(SpotifyTrackInfo info) {
+        putString(info.getId());
+        putString(info.getTitle());
+        putString(info.getArtists());
+        buffer.putLong(info.getDurationMs());
+        putString(info.getIsrc());
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    static SpotifyTrackInfo infoOf(QueuedTrack entry) {
+        if (entry.isLazy()) {
+            return entry.getSpotifyInfo();
+        }
+        return infoOf(entry.getTrack());
+    }
+
+    static SpotifyTrackInfo infoOf(AudioTrack track) {
+        if (track == null) {
+            return null;
+        }
+        return new SpotifyTrackInfo(
+            TrackCacheIndex.parseTrackId(track.getIdentifier()),
+            track.getInfo().title,
+            track.getInfo().author,
+            track.getDuration(),
+            null);
+    }
+
+    /**
+     * Estado de uma guild reconstruído a partir do diário.
+     */
+    public static class State {
+        private long voiceChannelId;
+        private long textChannelId;
+        private SpotifyTrackInfo current;
+        private long positionMs;
+        private final Deque<SpotifyTrackInfo> queue = new ArrayDeque<>();
+
+        public long getVoiceChannelId() {
+            return voiceChannelId;
+        }
+
+        public long getTextChannelId() {
+            return textChannelId;
+        }
+
+        public SpotifyTrackInfo getCurrent() {
+            return current;
+        }
+
+        public long getPositionMs() {
+            return positionMs;
+        }
+
+        /**
+         * Fila restante; entradas sem trackId (arquivos que não vieram do Spotify) ficam de fora.
+         */
+        public List<SpotifyTrackInfo> getQueue() {
+            List<SpotifyTrackInfo> entries = new ArrayList<>(queue.size());
+            for (SpotifyTrackInfo info : queue) {
+                if (info.getId() != null) {
+                    entries.add(info);
+                }
+            }
+            return entries;
+        }
+
+        public boolean isEmpty() {
+            return voiceChannelId == 0 || ((current == null || current.getId() == null) && getQueue().isEmpty());
+        }
+    }
+
+    /**
+     * Lê o diário de uma sessão anterior. Registros corrompidos ou pela metade encerram a
+     * leitura; o que veio antes deles vale.
+     */
+    public static State replay(Path file) {
+        State state = new State();
+        ByteBuffer data;
+        try {
+            data = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (IOException e) {
+            System.err.println("erro ao ler diario da fila " + file + ": " + e.getMessage());
+            return state;
+        }
+
+        try {
+            while (data.remaining() >= HEADER_BYTES) {
+                int length = data.getInt();
+                if (length <= 0 || length > data.remaining()) {
+                    break;
+                }
+
+                ByteBuffer record = data.slice(data.position(), length);
+                data.position(data.position() + length);
+                apply(state, record);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("diario da fila corrompido em " + file.getFileName() + ", restaurando ate o ultimo registro valido");
+        }
+        return state;
+    }
+
+    private static void apply(State state, ByteBuffer record) {
+        switch (record.get()) {
+            case CHANNELS -> {
+                state.voiceChannelId = record.getLong();
+                state.textChannelId = record.getLong();
+            }
+            case ENQUEUE -> addIfPresent(state.queue, readEntry(record), false);
+            case ENQUEUE_FRONT -> addIfPresent(state.queue, readEntry(record), true);
+            case ENQUEUE_ALL -> {
+                int count = record.getInt();
+                for (int i = 0; i < count; i++) {
+                    state.queue.addLast(readInfo(record));
+                }
+            }
+            case POLL -> state.queue.pollFirst();
+            case CURRENT -> {
+                state.current = readEntry(record);
+                state.positionMs = 0;
+            }
+            case POSITION -> state.positionMs = record.getLong();
+            case CLEAR -> {
+                state.queue.clear();
+                state.current = null;
+                state.positionMs = 0;
+            }
+            default -> throw new IllegalArgumentException("tipo de registro desconhecido");
+        }
+    }
+
+    private static void addIfPresent(Deque<SpotifyTrackInfo> queue, SpotifyTrackInfo info, boolean front) {
+        if (info == null) {
+            return;
+        }
+        if (front) {
+            queue.addFirst(info);
+        } else {
+            queue.addLast(info);
+        }
+    }
+
+    private static SpotifyTrackInfo readEntry(ByteBuffer record) {
+        return record.get() == 1 ? readInfo(record) : null;
+    }
+
+    private static SpotifyTrackInfo readInfo(ByteBuffer record) {
+        String id = readString(record);
+        String title = readString(record);
+        String artists = readString(record);
+        long durationMs = record.getLong();
+        String isrc = readString(record);
+        return new SpotifyTrackInfo(id, title, artists, durationMs, isrc);
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > record.remaining()) {
+            throw new IllegalArgumentException("texto maior que o registro");
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
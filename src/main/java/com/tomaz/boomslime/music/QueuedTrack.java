@@ -0,0 +1,114 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Entrada da fila. Pode já ter o {@link AudioTrack} carregado, ou só os metadados do
+ * Spotify: nesse caso o áudio é baixado e carregado quando a entrada chega perto do
+ * início da fila, e descartado de novo se ela for para longe (ex.: shuffle).
+ */
+public class QueuedTrack {
+    private final SpotifyTrackInfo info;
+    private AudioTrack track;
+    private CompletableFuture<AudioTrack> loading;
+
+    private QueuedTrack(SpotifyTrackInfo info, AudioTrack track) {
+        this.info = info;
+        this.track = track;
+    }
+
+    public static QueuedTrack of(AudioTrack track) {
+        return new QueuedTrack(null, track);
+    }
+
+    public static QueuedTrack lazy(SpotifyTrackInfo info) {
+        return new QueuedTrack(info, null);
+    }
+
+    public boolean isLazy() {
+        return info != null;
+    }
+
+    public SpotifyTrackInfo getSpotifyInfo() {
+        return info;
+    }
+
+    public synchronized AudioTrack getTrack() {
+        return track;
+    }
+
+    public synchronized boolean isLoaded() {
+        return track != null;
+    }
+
+    /**
+     * @return o carregamento em andamento (ou concluído), ou null se ainda não foi pedido
+     */
+    public synchronized CompletableFuture<AudioTrack> getLoading() {
+        return loading;
+    }
+
+    synchronized void setLoading(CompletableFuture<AudioTrack> future) {
+        this.loading = future;
+        future.thenAccept(loaded -> {
+            synchronized (this) {
+                if (loading == future) {
+                    track = loaded;
+                }
+            }
+        });
+    }
+
+    /**
+     * Troca o track por um clone (um AudioTrack só pode ser tocado uma vez), depois de
+     * um pré-carregamento desfeito.
+     */
+    synchronized void recycle() {
+        if (track != null) {
+            track = track.makeClone();
+        }
+    }
+
+    /**
+     * Volta a entrada preguiçosa para só metadados, cancelando o download se ainda não terminou.
+     */
+    void unload() {
+        CompletableFuture<AudioTrack> pending;
+        synchronized (this) {
+            if (info == null) {
+                return;
+            }
+            pending = loading;
+            loading = null;
+            track = null;
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    public String getTitle() {
+        AudioTrack loaded = getTrack();
+        return loaded != null ? loaded.getInfo().title : info.getTitle();
+    }
+
+    public String getAuthor() {
+        AudioTrack loaded = getTrack();
+        return loaded != null ? loaded.getInfo().author : info.getArtists();
+    }
+
+    public long getDuration() {
+        AudioTrack loaded = getTrack();
+        return loaded != null ? loaded.getDuration() : info.getDurationMs();
+    }
+
+    public String getTrackId() {
+        if (info != null) {
+            return info.getId();
+        }
+        return TrackCacheIndex.parseTrackId(track.getIdentifier());
+    }
+}
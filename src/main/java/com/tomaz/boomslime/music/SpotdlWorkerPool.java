@@ -0,0 +1,373 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.config.BotConfig;
+import com.tomaz.boomslime.util.TimerService;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Pool de processos spotdl de longa duracao (spotdl_worker.py). Os jobs sao enviados
+ * por stdin/stdout, sem pagar o custo de subir o Python e importar o spotdl a cada download.
+ */
+public class SpotdlWorkerPool {
+    private static final long HEALTH_CHECK_INTERVAL_MS = 30000;
+    private static final long PING_TIMEOUT_MS = 5000;
+    private static final long RESTART_DELAY_MS = 10000;
+
+    private final int size;
+    private final Path script;
+    private final List<String> command;
+    private final Map<String, String> spotdlSettings;
+    private final long idleWaitMs;
+    private final BlockingQueue<SpotdlWorker> idle;
+    private final AtomicLong jobIds;
+    private final AtomicInteger workerIds;
+    private final AtomicInteger liveWorkers;
+    private volatile boolean stopped = false;
+    private ScheduledFuture<?> healthCheck;
+
+    /**
+     * @param spotdlSettings variaveis SPOTDL_* repassadas ao worker (formato, bitrate, argumentos do ffmpeg)
+     */
+    public SpotdlWorkerPool(int size, Path dataDir, Map<String, String> spotdlSettings) {
+        this(size, dataDir.resolve("spotdl_worker.py"), null, spotdlSettings,
+            TimeUnit.SECONDS.toMillis(Long.parseLong(BotConfig.get("SPOTDL_WORKER_WAIT_SECONDS", "30"))));
+    }
+
+    /**
+     * Pool que sobe {@code command} no lugar do python com o spotdl_worker.py (testes com um worker falso).
+     */
+    SpotdlWorkerPool(int size, List<String> command, long idleWaitMs) {
+        this(size, null, command, Map.of(), idleWaitMs);
+    }
+
+    private SpotdlWorkerPool(int size, Path script, List<String> command, Map<String, String> spotdlSettings,
+                             long idleWaitMs) {
+        this.size = size;
+        this.script = script;
+        this.command = command;
+        this.spotdlSettings = spotdlSettings;
+        this.idleWaitMs = idleWaitMs;
+        this.idle = new LinkedBlockingQueue<>();
+        this.jobIds = new AtomicLong();
+        this.workerIds = new AtomicInteger();
+        this.liveWorkers = new AtomicInteger();
+    }
+
+    public boolean isEnabled() {
+        return size > 0;
+    }
+
+    /**
+     * Se há algum worker vivo. Sem nenhum (python ou spotdl ausentes, por ex.) os downloads
+     * voltam para um processo spotdl por download em vez de esperar por um worker.
+     */
+    public boolean isAvailable() {
+        return isEnabled() && !stopped && liveWorkers.get() > 0;
+    }
+
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (command == null && !installScript()) {
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            launch();
+        }
+
+        healthCheck = TimerService.getInstance().scheduleWithFixedDelay("spotdl-health", this::checkHealth,
+            HEALTH_CHECK_INTERVAL_MS, HEALTH_CHECK_INTERVAL_MS);
+
+        System.out.println("pool de workers do spotdl iniciado (" + size + " workers)");
+    }
+
+    /**
+     * Para o pool: mata os workers livres e não reinicia mais nenhum. Jobs em andamento terminam.
+     */
+    public void shutdown() {
+        stopped = true;
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+
+        SpotdlWorker worker;
+        while ((worker = idle.poll()) != null) {
+            retire(worker);
+        }
+    }
+
+    private boolean installScript() {
+        try (InputStream in = SpotdlWorkerPool.class.getResourceAsStream("/spotdl_worker.py")) {
+            if (in == null) {
+                throw new IOException("spotdl_worker.py nao encontrado no classpath");
+            }
+            Files.createDirectories(script.toAbsolutePath().getParent());
+            Files.copy(in, script, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("erro ao preparar worker do spotdl: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Executa um job num worker livre. O callback recebe (trackId, caminho) para cada
+     * track, assim que ela termina; caminho null indica falha daquela track.
+     * Se o job estourar o timeout ou a thread for interrompida, o worker e morto e reiniciado.
+     *
+     * @return false se o worker morreu ou expirou antes de concluir o job
+     * @throws DownloadException TRANSIENT se nenhum worker ficar livre em {@code SPOTDL_WORKER_WAIT_SECONDS}
+     */
+    public boolean runJob(List<String> spotifyUrls, String outputPattern, BiConsumer<String, String> onResult,
+                          long timeoutMs) throws InterruptedException, DownloadException {
+        SpotdlWorker worker = idle.poll(idleWaitMs, TimeUnit.MILLISECONDS);
+        if (worker == null) {
+            throw new DownloadException(DownloadException.Kind.TRANSIENT,
+                "nenhum worker do spotdl livre em " + idleWaitMs + "ms");
+        }
+        boolean healthy = false;
+
+        try {
+            healthy = worker.run(spotifyUrls, outputPattern, onResult, timeoutMs);
+            return healthy;
+        } finally {
+            if (healthy && !stopped) {
+                idle.offer(worker);
+            } else if (healthy) {
+                retire(worker);
+            } else {
+                replace(worker);
+            }
+        }
+    }
+
+    private void launch() {
+        if (stopped) {
+            return;
+        }
+
+        SpotdlWorker worker = new SpotdlWorker(workerIds.incrementAndGet());
+
+        try {
+            worker.start();
+        } catch (IOException e) {
+            System.err.println("erro ao iniciar worker do spotdl #" + worker.id + ": " + e.getMessage());
+            scheduleRelaunch();
+            return;
+        }
+
+        worker.ready.whenComplete((ignored, error) -> {
+            if (error == null) {
+                System.out.println("worker do spotdl #" + worker.id + " pronto");
+                worker.live = true;
+                liveWorkers.incrementAndGet();
+                idle.offer(worker);
+            } else {
+                System.err.println("worker do spotdl #" + worker.id + " morreu ao iniciar");
+                worker.kill();
+                scheduleRelaunch();
+            }
+        });
+    }
+
+    private void replace(SpotdlWorker worker) {
+        System.out.println("reiniciando worker do spotdl #" + worker.id);
+        retire(worker);
+        launch();
+    }
+
+    private void retire(SpotdlWorker worker) {
+        if (worker.live) {
+            worker.live = false;
+            liveWorkers.decrementAndGet();
+        }
+        worker.kill();
+    }
+
+    private void scheduleRelaunch() {
+        TimerService.getInstance().schedule("spotdl-relaunch", this::launch, RESTART_DELAY_MS);
+    }
+
+    /**
+     * Manda PING aos workers livres sem esperar a resposta aqui (a tarefa roda no TimerService):
+     * cada worker fica fora da fila até responder ou estourar o timeout.
+     */
+    private void checkHealth() {
+        int count = idle.size();
+        for (int i = 0; i < count; i++) {
+            SpotdlWorker worker = idle.poll();
+            if (worker == null) {
+                return;
+            }
+
+            worker.ping().orTimeout(PING_TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((ignored, error) -> {
+                if (error == null && !stopped) {
+                    idle.offer(worker);
+                } else if (error != null) {
+                    System.err.println("worker do spotdl #" + worker.id + " nao respondeu ao ping");
+                    replace(worker);
+                } else {
+                    retire(worker);
+                }
+            });
+        }
+    }
+
+    private class SpotdlWorker {
+        private final int id;
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+        private Process process;
+        private BufferedWriter stdin;
+        private volatile Job currentJob;
+        private volatile CompletableFuture<Void> pong;
+        private volatile boolean live = false;
+
+        SpotdlWorker(int id) {
+            this.id = id;
+        }
+
+        void start() throws IOException {
+            ProcessBuilder pb = command != null
+                ? new ProcessBuilder(command)
+                : new ProcessBuilder(BotConfig.get("SPOTDL_PYTHON", "python3"), script.toAbsolutePath().toString());
+
+            spotdlSettings.forEach((key, value) -> putIfSet(pb, key, value));
+            putIfSet(pb, "SPOTDL_FFMPEG", BotConfig.get("FFMPEG_PATH"));
+            putIfSet(pb, "SPOTIFY_CLIENT_ID", BotConfig.get("SPOTIFY_CLIENT_ID"));
+            putIfSet(pb, "SPOTIFY_CLIENT_SECRET", BotConfig.get("SPOTIFY_CLIENT_SECRET"));
+
+            String proxyServer = BotConfig.get("PROXY_SERVER");
+            putIfSet(pb, "HTTP_PROXY", proxyServer);
+            putIfSet(pb, "HTTPS_PROXY", proxyServer);
+
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+            Thread reader = new Thread(this::readLoop, "SpotdlWorker-" + id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void putIfSet(ProcessBuilder pb, String key, String value) {
+            if (value != null && !value.isEmpty()) {
+                pb.environment().put(key, value);
+            }
+        }
+
+        boolean run(List<String> spotifyUrls, String outputPattern, BiConsumer<String, String> onResult,
+                    long timeoutMs) throws InterruptedException {
+            Job job = new Job(String.valueOf(jobIds.incrementAndGet()), onResult);
+            currentJob = job;
+
+            try {
+                send("JOB\t" + job.id + "\t" + outputPattern + "\t" + String.join("\t", spotifyUrls));
+                job.done.get(timeoutMs, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                System.err.println("worker do spotdl #" + id + " estourou o timeout do job " + job.id);
+                return false;
+            } catch (ExecutionException | IOException e) {
+                System.err.println("worker do spotdl #" + id + " falhou no job " + job.id + ": " + e.getMessage());
+                return false;
+            } finally {
+                currentJob = null;
+            }
+        }
+
+        CompletableFuture<Void> ping() {
+            CompletableFuture<Void> waiting = new CompletableFuture<>();
+            pong = waiting;
+
+            try {
+                send("PING");
+            } catch (IOException e) {
+                waiting.completeExceptionally(e);
+            }
+            return waiting;
+        }
+
+        private synchronized void send(String line) throws IOException {
+            stdin.write(line);
+            stdin.newLine();
+            stdin.flush();
+        }
+
+        private void readLoop() {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    dispatch(line.split("\t", -1));
+                }
+            } catch (IOException ignored) {
+            }
+
+            IOException died = new IOException("worker encerrou");
+            ready.completeExceptionally(died);
+            Job job = currentJob;
+            if (job != null) {
+                job.done.completeExceptionally(died);
+            }
+        }
+
+        private void dispatch(String[] parts) {
+            Job job = currentJob;
+
+            switch (parts[0]) {
+                case "READY":
+                    ready.complete(null);
+                    break;
+                case "PONG":
+                    CompletableFuture<Void> waiting = pong;
+                    if (waiting != null) {
+                        waiting.complete(null);
+                    }
+                    break;
+                case "RESULT":
+                    if (job != null && parts.length >= 4 && parts[1].equals(job.id)) {
+                        job.onResult.accept(parts[2], parts[3].isEmpty() ? null : parts[3]);
+                    }
+                    break;
+                case "DONE":
+                    if (job != null && parts[1].equals(job.id)) {
+                        job.done.complete(null);
+                    }
+                    break;
+                default:
+                    System.out.println("spotdl worker #" + id + ": " + String.join(" ", parts));
+            }
+        }
+
+        void kill() {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static class Job {
+        private final String id;
+        private final BiConsumer<String, String> onResult;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Job(String id, BiConsumer<String, String> onResult) {
+            this.id = id;
+            this.onResult = onResult;
+        }
+    }
+}
@@ -1,16 +1,51 @@
 package com.tomaz.boomslime.music;
 
 import com.tomaz.boomslime.config.BotConfig;
+import com.tomaz.boomslime.services.SpotifyService;
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+import com.tomaz.boomslime.util.CircuitBreaker;
+import com.tomaz.boomslime.util.Metrics;
+import com.tomaz.boomslime.util.RateLimiter;
+import com.tomaz.boomslime.util.TimerService;
 
 import java.io.*;
 import java.nio.file.*;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class SpotifyDownloader {
     private static SpotifyDownloader INSTANCE;
+    private static final String AUDIO_BITRATE = "96k";
+    private static final long RETRY_BASE_DELAY_MS = 2000;
+    private static final long RETRY_MAX_DELAY_MS = 60000;
+    private static final long STREAM_START_BYTES = 64 * 1024;
+    private static final long STREAM_START_TIMEOUT_MS = 30000;
+    private static final long STREAM_TIMEOUT_SECONDS = 600;
+
     private final Path downloadDir;
+    private final String audioFormat;
+    private final TrackCacheIndex cacheIndex;
+    private final RateLimiter spawnLimiter;
+    private final SpotdlWorkerPool workerPool;
+    private final ProcessSlots processSlots;
+    private final CachePolicy cachePolicy;
+    private final long workerJobTimeoutSeconds;
+    private final int maxAttempts;
+    private final CircuitBreaker circuitBreaker;
+    private final LoudnessAnalyzer loudnessAnalyzer;
 
     private SpotifyDownloader() {
         this.downloadDir = BotConfig.getMusicDir();
@@ -20,6 +55,43 @@ public class SpotifyDownloader {
         } catch (IOException e) {
             System.err.println("erro ao criar diretorio de downloads: " + e.getMessage());
         }
+
+        this.audioFormat = BotConfig.get("AUDIO_FORMAT", "mp3").toLowerCase();
+        this.cacheIndex = new TrackCacheIndex(downloadDir, BotConfig.getDataDir().resolve("cache-index.tsv"), audioFormat);
+        this.cacheIndex.start();
+
+        long maxCacheBytes = Long.parseLong(BotConfig.get("CACHE_MAX_MB", "10240")) * 1024 * 1024;
+        CachePolicy.Mode evictionMode = CachePolicy.Mode.valueOf(BotConfig.get("CACHE_EVICTION", "lru").toUpperCase());
+        this.cachePolicy = new CachePolicy(cacheIndex, maxCacheBytes, evictionMode);
+
+        if (audioFormat.equals("opus")) {
+            new CacheMigrator(cacheIndex, cachePolicy, AUDIO_BITRATE).start();
+        }
+
+        this.maxAttempts = Math.max(1, Integer.parseInt(BotConfig.get("DOWNLOAD_MAX_ATTEMPTS", "3")));
+        this.circuitBreaker = new CircuitBreaker("spotdl",
+            Integer.parseInt(BotConfig.get("BREAKER_FAILURE_THRESHOLD", "5")),
+            TimeUnit.SECONDS.toMillis(Long.parseLong(BotConfig.get("BREAKER_OPEN_SECONDS", "60"))));
+        Metrics.getInstance().gauge("downloads.breaker.state", () -> circuitBreaker.getState().ordinal());
+
+        double startsPerMinute = Double.parseDouble(BotConfig.get("SPOTDL_STARTS_PER_MINUTE", "12"));
+        int burst = Integer.parseInt(BotConfig.get("SPOTDL_STARTS_BURST", "3"));
+        this.spawnLimiter = new RateLimiter(startsPerMinute / 60.0, burst);
+
+        this.processSlots = new ProcessSlots(Integer.parseInt(
+            BotConfig.get("SPOTDL_MAX_PROCESSES", BotConfig.get("DOWNLOAD_THREADS", "3"))));
+
+        this.loudnessAnalyzer = new LoudnessAnalyzer(cacheIndex, processSlots, AUDIO_BITRATE);
+        this.loudnessAnalyzer.start();
+
+        this.workerJobTimeoutSeconds = Long.parseLong(BotConfig.get("SPOTDL_JOB_TIMEOUT_SECONDS", "120"));
+        Map<String, String> workerSettings = new HashMap<>();
+        workerSettings.put("SPOTDL_FORMAT", audioFormat);
+        workerSettings.put("SPOTDL_BITRATE", AUDIO_BITRATE);
+        workerSettings.put("SPOTDL_THREADS", "8");
+        workerSettings.put("SPOTDL_FFMPEG_ARGS", getFfmpegArgs());
+        this.workerPool = new SpotdlWorkerPool(Integer.parseInt(BotConfig.get("SPOTDL_WORKERS", "0")), BotConfig.getDataDir(), workerSettings);
+        this.workerPool.start();
     }
 
     public static synchronized SpotifyDownloader getInstance() {
@@ -36,32 +108,86 @@ public class SpotifyDownloader {
             return cachedFile;
         }
 
-        final int MAX_RETRIES = 3;
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            System.out.println("baixando com spotdl (tentativa " + attempt + "/" + MAX_RETRIES + "): " + spotifyUrl);
+        Metrics metrics = Metrics.getInstance();
 
-            String result = attemptDownload(spotifyUrl);
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                System.err.println("🔌 downloads suspensos (circuito aberto), ignorando: " + spotifyUrl);
+                metrics.counter("downloads.breaker.rejected").increment();
+                return null;
+            }
 
-            if (result != null) {
+            System.out.println("baixando com spotdl (tentativa " + attempt + "/" + maxAttempts + "): " + spotifyUrl);
+            metrics.counter("downloads.attempts").increment();
+            if (attempt > 1) {
+                metrics.counter("downloads.retries").increment();
+            }
+
+            DownloadException.Kind failure;
+            try {
+                String result = attemptDownload(spotifyUrl);
+
+                if (result == null) {
+                    // interrompido: nao diz nada sobre a saude do spotdl
+                    circuitBreaker.releaseTrial();
+                    return null;
+                }
+
+                circuitBreaker.recordSuccess();
+                cachePolicy.enforceBudget();
+                loudnessAnalyzer.submitFile(result);
                 return result;
+            } catch (DownloadException e) {
+                failure = e.getKind();
+                System.err.println("download falhou (" + failure.name().toLowerCase() + "): " + e.getMessage());
+                metrics.counter("downloads.failed." + failure.name().toLowerCase()).increment();
             }
 
-            if (attempt < MAX_RETRIES) {
-                System.out.println("aguardando 5s antes de tentar novamente...");
+            if (failure == DownloadException.Kind.PERMANENT) {
+                // a fonte respondeu, a track e que nao existe: conta como servico saudavel
+                circuitBreaker.recordSuccess();
+                System.err.println("erro permanente, desistindo de: " + spotifyUrl);
+                return null;
+            }
+
+            if (circuitBreaker.recordFailure()) {
+                metrics.counter("downloads.breaker.opened").increment();
+                return null;
+            }
+
+            if (attempt < maxAttempts) {
+                long delay = backoffDelay(attempt, failure);
+                System.out.println("aguardando " + delay + "ms antes de tentar novamente...");
                 try {
-                    Thread.sleep(5000);
+                    Thread.sleep(delay);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
+                    return null;
                 }
             }
         }
 
-        System.err.println("download falhou apos " + MAX_RETRIES + " tentativas: " + spotifyUrl);
+        System.err.println("download falhou apos " + maxAttempts + " tentativas: " + spotifyUrl);
         return null;
     }
 
-    private String attemptDownload(String spotifyUrl) {
+    /**
+     * Backoff exponencial com jitter ("equal jitter"): metade fixa, metade aleatória, para
+     * que várias guilds falhando juntas não tentem de novo no mesmo instante.
+     */
+    private long backoffDelay(int attempt, DownloadException.Kind failure) {
+        long base = failure == DownloadException.Kind.RATE_LIMITED ? RETRY_BASE_DELAY_MS * 4 : RETRY_BASE_DELAY_MS;
+        long ceiling = Math.min(RETRY_MAX_DELAY_MS, base << Math.min(attempt - 1, 10));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * @return caminho do arquivo, ou null se a thread foi interrompida
+     * @throws DownloadException com a classe do erro quando o download falha
+     */
+    private String attemptDownload(String spotifyUrl) throws DownloadException {
         Process process = null;
+        boolean slotAcquired = false;
         BufferedReader reader = null;
 
         try {
@@ -70,48 +196,36 @@ public class SpotifyDownloader {
                 return null;
             }
 
-            ProcessBuilder pb;
-            String ffmpegPath = BotConfig.get("FFMPEG_PATH");
-
             String trackId = extractTrackId(spotifyUrl);
-            String outputPattern = trackId != null
-                ? downloadDir.toString() + "/{artists} - {title} [" + trackId + "].{output-ext}"
-                : downloadDir.toString() + "/{artists} - {title}.{output-ext}";
-
-            String proxyServer = BotConfig.get("PROXY_SERVER");
-            java.util.List<String> command = new java.util.ArrayList<>();
-            command.add("spotdl");
-            command.add("download");
-            command.add(spotifyUrl);
-
-            if (ffmpegPath != null && !ffmpegPath.isEmpty()) {
-                command.add("--ffmpeg");
-                command.add(ffmpegPath);
-            }
 
-            command.add("--format");
-            command.add("mp3");
-            command.add("--bitrate");
-            command.add("96k");
-            command.add("--threads");
-            command.add("8");
-            command.add("--output");
-            command.add(outputPattern);
-            command.add("--print-errors");
+            if (workerPool.isAvailable() && trackId != null) {
+                Map<String, String> pending = new LinkedHashMap<>();
+                pending.put(trackId, spotifyUrl);
 
-            pb = new ProcessBuilder(command);
+                String[] result = new String[1];
+                attemptWorkerDownload(pending, (url, filePath) -> result[0] = filePath);
 
-            if (proxyServer != null && !proxyServer.isEmpty()) {
-                pb.environment().put("HTTP_PROXY", proxyServer);
-                pb.environment().put("HTTPS_PROXY", proxyServer);
+                if (result[0] == null) {
+                    throw new DownloadException(DownloadException.Kind.TRANSIENT, "worker do spotdl nao conseguiu baixar " + spotifyUrl);
+                }
+                System.out.println("✓ download bem-sucedido: " + result[0]);
+                return result[0];
             }
 
-            pb.redirectErrorStream(true);
-            process = pb.start();
+            String outputPattern = trackId != null
+                ? downloadDir.toString() + "/{artists} - {title} [" + trackId + "].{output-ext}"
+                : downloadDir.toString() + "/{artists} - {title}.{output-ext}";
+
+            // so o caminho que sobe um processo passa pelo limite de inicializacoes
+            acquireSpawn();
+            processSlots.acquire();
+            slotAcquired = true;
+            process = startSpotdl(List.of(spotifyUrl), outputPattern);
 
             reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
             String line;
             String downloadedFile = null;
+            DownloadException.Kind errorKind = null;
 
             String trackName = null;
             while ((line = reader.readLine()) != null) {
@@ -123,6 +237,11 @@ public class SpotifyDownloader {
 
                 System.out.println("spotdl: " + line);
 
+                DownloadException.Kind lineKind = DownloadException.classify(line);
+                if (lineKind != null && errorKind != DownloadException.Kind.RATE_LIMITED) {
+                    errorKind = lineKind;
+                }
+
                 if (line.contains("Skipping") && line.contains("(file already exists)")) {
                     int start = line.indexOf("Skipping") + 9;
                     int end = line.indexOf("(file already exists)");
@@ -138,36 +257,37 @@ public class SpotifyDownloader {
                 }
             }
 
+            if (Thread.currentThread().isInterrupted()) {
+                // cancelado: o processo ja foi destruido pelo scheduler
+                System.out.println("⏹ Download interrompido: " + spotifyUrl);
+                return null;
+            }
+
             boolean finished = process.waitFor(60, TimeUnit.SECONDS);
 
             reader.close();
 
             if (!finished) {
-                System.err.println("spotdl timeout");
                 process.destroyForcibly();
-                return null;
-            }
-
-            int exitCode = process.exitValue();
-            if (exitCode != 0) {
-                System.err.println("spotdl falhou com codigo: " + exitCode);
-                return null;
+                throw new DownloadException(DownloadException.Kind.TRANSIENT, "spotdl timeout");
             }
 
             if (trackId != null) {
-                File[] filesWithId = downloadDir.toFile().listFiles((dir, name) ->
-                    name.endsWith(".mp3") && name.contains("[" + trackId + "]")
-                );
+                Path file = cacheIndex.lookupAfterDownload(trackId);
 
-                if (filesWithId != null && filesWithId.length > 0) {
-                    downloadedFile = filesWithId[0].getAbsolutePath();
+                if (file != null) {
+                    downloadedFile = file.toAbsolutePath().toString();
                     System.out.println("✓ download bem-sucedido: " + downloadedFile);
                     return downloadedFile;
                 }
             }
 
-            System.err.println("arquivo nao encontrado com trackId, possivelmente o download falhou");
-            return null;
+            DownloadException.Kind kind = errorKind != null ? errorKind : DownloadException.Kind.TRANSIENT;
+            int exitCode = process.exitValue();
+            if (exitCode != 0) {
+                throw new DownloadException(kind, "spotdl falhou com codigo: " + exitCode);
+            }
+            throw new DownloadException(kind, "arquivo nao encontrado com trackId, possivelmente o download falhou");
 
         } catch (InterruptedException e) {
             System.out.println("⏹ Download interrompido: " + spotifyUrl);
@@ -176,11 +296,12 @@ public class SpotifyDownloader {
             }
             Thread.currentThread().interrupt();
             return null;
-        } catch (Exception e) {
-            System.err.println("erro ao baixar musica: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+        } catch (IOException e) {
+            throw new DownloadException(DownloadException.Kind.TRANSIENT, "erro ao executar spotdl: " + e.getMessage());
         } finally {
+            if (slotAcquired) {
+                processSlots.release();
+            }
             if (reader != null) {
                 try {
                     reader.close();
@@ -192,40 +313,519 @@ public class SpotifyDownloader {
         }
     }
 
-    public void cleanupOldFiles() {
+    /**
+     * Download progressivo: resolve a URL do áudio com {@code spotdl url} e deixa o ffmpeg
+     * gravar num arquivo parcial. Assim que houver áudio suficiente, {@code onReady} recebe o
+     * identificador da track (o caminho final), que o {@link ProgressiveAudioSourceManager}
+     * já sabe tocar enquanto o arquivo cresce. Se falhar antes disso, cai no download normal.
+     *
+     * @return caminho do arquivo completo, ou null se o download falhar
+     */
+    public String downloadProgressive(String spotifyUrl, Consumer<String> onReady) {
+        String cachedFile = checkCache(spotifyUrl);
+        if (cachedFile != null) {
+            System.out.println("✓ usando cache: " + cachedFile);
+            return cachedFile;
+        }
+
+        SpotifyTrackInfo trackInfo = circuitBreaker.isOpen() ? null : SpotifyService.getInstance().getTrackInfo(spotifyUrl);
+        if (trackInfo == null) {
+            return downloadTrack(spotifyUrl);
+        }
+
+        String baseName = sanitizeFileName(trackInfo.getArtists() + " - " + trackInfo.getTitle())
+            + " [" + trackInfo.getId() + "]." + audioFormat;
+        Path finalFile = downloadDir.resolve(baseName).toAbsolutePath();
+        Path partialFile = downloadDir.resolve(baseName + ".part").toAbsolutePath();
+        ProgressiveDownload download = new ProgressiveDownload(trackInfo, partialFile, finalFile);
+        ProgressiveAudioSourceManager sourceManager = ProgressiveAudioSourceManager.getInstance();
+
+        boolean ready = false;
+        boolean fallback = false;
+        Process process = null;
+        boolean slotAcquired = false;
+
         try {
-            File[] files = downloadDir.toFile().listFiles((dir, name) -> name.endsWith(".mp3"));
-            if (files != null) {
-                long now = System.currentTimeMillis();
-                int deleted = 0;
+            acquireSpawn();
+            processSlots.acquire();
+            slotAcquired = true;
 
-                for (File file : files) {
-                    long fileAge = now - file.lastModified();
-                    if (fileAge > 15552000000L) {
-                        if (file.delete()) {
-                            deleted++;
+            String streamUrl = resolveStreamUrl(spotifyUrl);
+            if (streamUrl == null) {
+                throw new IOException("spotdl nao encontrou audio para streaming");
+            }
+
+            System.out.println("▶ streaming progressivo: " + trackInfo.getArtists() + " - " + trackInfo.getTitle());
+            Files.deleteIfExists(partialFile);
+            process = startProgressiveFfmpeg(streamUrl, trackInfo, partialFile);
+            sourceManager.register(download);
+
+            long deadline = System.currentTimeMillis() + STREAM_START_TIMEOUT_MS;
+            while (!download.awaitBuffered(STREAM_START_BYTES, 250) && process.isAlive()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("ffmpeg nao gerou audio suficiente a tempo");
+                }
+            }
+            if (!process.isAlive() && process.exitValue() != 0) {
+                throw new IOException("ffmpeg falhou com codigo: " + process.exitValue());
+            }
+
+            ready = true;
+            onReady.accept(download.getIdentifier());
+
+            if (!process.waitFor(STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("ffmpeg nao concluiu o download progressivo");
+            }
+
+            Files.move(partialFile, finalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            download.markComplete();
+            cacheIndex.put(finalFile);
+            cachePolicy.enforceBudget();
+            loudnessAnalyzer.submitFile(finalFile.toString());
+
+            System.out.println("✓ download progressivo concluido: " + finalFile);
+            return finalFile.toString();
+        } catch (InterruptedException e) {
+            System.out.println("⏹ Download progressivo interrompido: " + spotifyUrl);
+            Thread.currentThread().interrupt();
+            download.markFailed();
+            return null;
+        } catch (IOException e) {
+            System.err.println("erro no download progressivo: " + e.getMessage());
+            download.markFailed();
+            fallback = !ready && !Thread.currentThread().isInterrupted();
+        } finally {
+            if (slotAcquired) {
+                processSlots.release();
+            }
+            sourceManager.unregister(download);
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+            if (!download.isComplete()) {
+                try {
+                    Files.deleteIfExists(partialFile);
+                } catch (IOException ignored) {}
+            }
+        }
+
+        if (fallback) {
+            System.err.println("streaming indisponivel, usando download normal: " + spotifyUrl);
+            return downloadTrack(spotifyUrl);
+        }
+        return null;
+    }
+
+    /**
+     * Pergunta ao spotdl qual URL de áudio ele usaria para a track, sem baixar nada.
+     */
+    private String resolveStreamUrl(String spotifyUrl) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("spotdl");
+        command.add("url");
+        command.add(spotifyUrl);
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        String proxyServer = BotConfig.get("PROXY_SERVER");
+        if (proxyServer != null && !proxyServer.isEmpty()) {
+            pb.environment().put("HTTP_PROXY", proxyServer);
+            pb.environment().put("HTTPS_PROXY", proxyServer);
+        }
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        DownloadScheduler.bindProcess(process);
+
+        try {
+            String streamUrl = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().startsWith("http")) {
+                        streamUrl = line.trim();
+                    }
+                }
+            }
+
+            if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                return null;
+            }
+            return streamUrl;
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * ffmpeg gravando no arquivo parcial com flush a cada pacote. Para mp3 o cabeçalho
+     * Xing fica desligado, porque o ffmpeg voltaria ao início do arquivo para escrevê-lo.
+     */
+    private Process startProgressiveFfmpeg(String streamUrl, SpotifyTrackInfo trackInfo, Path partialFile)
+            throws IOException {
+        String ffmpegPath = BotConfig.get("FFMPEG_PATH");
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath != null && !ffmpegPath.isEmpty() ? ffmpegPath : "ffmpeg");
+        command.add("-y");
+        command.add("-loglevel");
+        command.add("error");
+        command.add("-i");
+        command.add(streamUrl);
+        command.add("-vn");
+        command.add("-metadata");
+        command.add("title=" + trackInfo.getTitle());
+        command.add("-metadata");
+        command.add("artist=" + trackInfo.getArtists());
+
+        if (audioFormat.equals("opus")) {
+            command.add("-c:a");
+            command.add("libopus");
+            command.add("-ar");
+            command.add("48000");
+            command.add("-ac");
+            command.add("2");
+        } else {
+            command.add("-c:a");
+            command.add("libmp3lame");
+            command.add("-write_xing");
+            command.add("0");
+        }
+
+        command.add("-b:a");
+        command.add(AUDIO_BITRATE);
+        command.add("-flush_packets");
+        command.add("1");
+        command.add("-f");
+        command.add(audioFormat);
+        command.add(partialFile.toString());
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        Process process = pb.start();
+        DownloadScheduler.bindProcess(process);
+        return process;
+    }
+
+    private static String sanitizeFileName(String name) {
+        return name.replaceAll("[\\\\/:*?\"<>|]", "").trim();
+    }
+
+    /**
+     * Baixa varias tracks numa unica execucao do spotdl, evitando o custo de subir o
+     * interpretador e buscar metadados no Spotify para cada uma.
+     * O callback e chamado uma vez por URL (caminho do arquivo, ou null em caso de falha),
+     * assim que cada arquivo fica pronto.
+     */
+    public void downloadBatch(List<String> spotifyUrls, BiConsumer<String, String> onTrack) {
+        Map<String, String> pending = new LinkedHashMap<>();
+
+        for (String url : spotifyUrls) {
+            String cachedFile = checkCache(url);
+            String trackId = extractTrackId(url);
+
+            if (cachedFile != null) {
+                onTrack.accept(url, cachedFile);
+            } else if (trackId == null) {
+                onTrack.accept(url, downloadTrack(url));
+            } else {
+                pending.put(trackId, url);
+            }
+        }
+
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        if (pending.size() == 1) {
+            String url = pending.values().iterator().next();
+            onTrack.accept(url, downloadTrack(url));
+            return;
+        }
+
+        if (!circuitBreaker.allowRequest()) {
+            System.err.println("🔌 downloads suspensos (circuito aberto), ignorando lote de " + pending.size() + " tracks");
+            Metrics.getInstance().counter("downloads.breaker.rejected").add(pending.size());
+            for (String url : pending.values()) {
+                onTrack.accept(url, null);
+            }
+            return;
+        }
+
+        System.out.println("baixando lote de " + pending.size() + " tracks com spotdl");
+        AtomicInteger delivered = new AtomicInteger();
+        attemptBatchDownload(pending, (url, filePath) -> {
+            delivered.incrementAndGet();
+            loudnessAnalyzer.submitFile(filePath);
+            onTrack.accept(url, filePath);
+        });
+        cachePolicy.enforceBudget();
+
+        if (Thread.currentThread().isInterrupted()) {
+            circuitBreaker.releaseTrial();
+        } else if (delivered.get() > 0) {
+            circuitBreaker.recordSuccess();
+        } else if (circuitBreaker.recordFailure()) {
+            // nenhum arquivo do lote: as que faltam caem no download individual, que já vê o circuito aberto
+            Metrics.getInstance().counter("downloads.breaker.opened").increment();
+        }
+
+        for (String url : pending.values()) {
+            if (Thread.currentThread().isInterrupted()) {
+                onTrack.accept(url, null);
+                continue;
+            }
+            System.out.println("track nao veio no lote, baixando individualmente: " + url);
+            onTrack.accept(url, downloadTrack(url));
+        }
+    }
+
+    private void attemptBatchDownload(Map<String, String> pending, BiConsumer<String, String> onTrack) {
+        Process process = null;
+        boolean slotAcquired = false;
+
+        try {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            if (workerPool.isAvailable()) {
+                attemptWorkerDownload(pending, onTrack);
+                return;
+            }
+
+            String outputPattern = downloadDir.toString() + "/{artists} - {title} [{track-id}].{output-ext}";
+            acquireSpawn();
+            processSlots.acquire();
+            slotAcquired = true;
+            process = startSpotdl(new ArrayList<>(pending.values()), outputPattern);
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        System.out.println("⏹ Download em lote interrompido durante execução");
+                        process.destroyForcibly();
+                        return;
+                    }
+
+                    System.out.println("spotdl: " + line);
+
+                    String displayName = parseFinishedName(line);
+                    if (displayName != null) {
+                        String trackId = matchPendingTrack(pending.keySet(), displayName);
+                        if (trackId != null) {
+                            Path file = cacheIndex.lookupOrFind(trackId);
+                            String url = pending.remove(trackId);
+                            onTrack.accept(url, file.toAbsolutePath().toString());
                         }
                     }
                 }
+            }
 
-                if (deleted > 0) {
-                    System.out.println("auto-limpeza: removeu " + deleted + " arquivos com +180 dias");
+            if (Thread.currentThread().isInterrupted()) {
+                System.out.println("⏹ Download em lote interrompido");
+                return;
+            }
+
+            boolean finished = process.waitFor(60, TimeUnit.SECONDS);
+            if (!finished) {
+                System.err.println("spotdl timeout (lote)");
+                process.destroyForcibly();
+            } else if (process.exitValue() != 0) {
+                System.err.println("spotdl (lote) falhou com codigo: " + process.exitValue());
+            }
+
+            Iterator<Map.Entry<String, String>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                Path file = cacheIndex.lookupAfterDownload(entry.getKey());
+                if (file != null) {
+                    it.remove();
+                    onTrack.accept(entry.getValue(), file.toAbsolutePath().toString());
                 }
             }
+        } catch (InterruptedException e) {
+            System.out.println("⏹ Download em lote interrompido");
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
-            System.err.println("erro ao limpar arquivos: " + e.getMessage());
+            System.err.println("erro ao baixar lote: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (slotAcquired) {
+                processSlots.release();
+            }
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
         }
     }
 
-    public void startAutoCleanup() {
-        Timer cleanupTimer = new Timer("AutoCleanup", true);
+    private void acquireSpawn() throws InterruptedException {
+        long waited = spawnLimiter.acquire();
+        if (waited > 0) {
+            System.out.println("⏳ aguardou " + waited + "ms pelo limite de inicializacoes do spotdl");
+        }
+    }
+
+    /**
+     * Envia as tracks pendentes para um worker do pool. O worker devolve o trackId de cada
+     * arquivo, entao nao e preciso cruzar nomes como no modo de processo avulso.
+     * Tracks que falharem continuam em {@code pending}.
+     */
+    private void attemptWorkerDownload(Map<String, String> pending, BiConsumer<String, String> onTrack)
+            throws InterruptedException, DownloadException {
+        Map<String, String> remaining = new ConcurrentHashMap<>(pending);
+        AtomicBoolean open = new AtomicBoolean(true);
+        String outputPattern = downloadDir.toString() + "/{artists} - {title} [{track-id}].{output-ext}";
+        long timeoutMs = TimeUnit.SECONDS.toMillis(workerJobTimeoutSeconds) * pending.size();
+
+        try {
+            workerPool.runJob(new ArrayList<>(pending.values()), outputPattern, (trackId, filePath) -> {
+                if (filePath == null || !open.get()) {
+                    return;
+                }
+
+                String url = remaining.remove(trackId);
+                if (url != null) {
+                    Path file = Paths.get(filePath);
+                    cacheIndex.put(file);
+                    onTrack.accept(url, file.toAbsolutePath().toString());
+                }
+            }, timeoutMs);
+        } finally {
+            open.set(false);
+            pending.keySet().retainAll(remaining.keySet());
+        }
+    }
+
+    /**
+     * Extrai o nome exibido pelo spotdl nas linhas "Downloaded "..."" e "Skipping ... (file already exists)".
+     */
+    private String parseFinishedName(String line) {
+        if (line.contains("Skipping") && line.contains("(file already exists)")) {
+            int start = line.indexOf("Skipping") + 9;
+            int end = line.indexOf("(file already exists)");
+            if (end > start) {
+                return line.substring(start, end).trim();
+            }
+        } else if (line.contains("Downloaded")) {
+            int start = line.indexOf("\"");
+            int end = line.lastIndexOf("\"");
+            if (start >= 0 && end > start) {
+                return line.substring(start + 1, end).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * O spotdl nao imprime o trackId, entao cruza o nome exibido ("Artista - Titulo")
+     * com o nome dos arquivos das tracks pendentes. O watcher do indice e assincrono, entao
+     * um arquivo que acabou de ser gravado pode ainda nao estar indexado: nesse caso vale o
+     * glob pelo trackId.
+     */
+    private String matchPendingTrack(Collection<String> pendingIds, String displayName) {
+        int separator = displayName.indexOf(" - ");
+        String artist = normalizeName(separator > 0 ? displayName.substring(0, separator) : "");
+        String title = normalizeName(separator > 0 ? displayName.substring(separator + 3) : displayName);
+
+        String fallback = null;
+        for (String trackId : pendingIds) {
+            Path file = cacheIndex.lookupOrFind(trackId);
+            if (file == null) continue;
+
+            String fileName = normalizeName(file.getFileName().toString());
+            if (!fileName.contains(title)) continue;
+
+            if (fileName.contains(artist)) {
+                return trackId;
+            }
+            if (fallback == null) {
+                fallback = trackId;
+            }
+        }
+        return fallback;
+    }
+
+    private static String normalizeName(String name) {
+        return name.toLowerCase().replaceAll("[^\\p{L}\\p{N}]", "");
+    }
+
+    private Process startSpotdl(List<String> spotifyUrls, String outputPattern) throws IOException {
+        String ffmpegPath = BotConfig.get("FFMPEG_PATH");
+        String proxyServer = BotConfig.get("PROXY_SERVER");
+
+        List<String> command = new ArrayList<>();
+        command.add("spotdl");
+        command.add("download");
+        command.addAll(spotifyUrls);
+
+        if (ffmpegPath != null && !ffmpegPath.isEmpty()) {
+            command.add("--ffmpeg");
+            command.add(ffmpegPath);
+        }
+
+        command.add("--format");
+        command.add(audioFormat);
+        command.add("--bitrate");
+        command.add(AUDIO_BITRATE);
+
+        String ffmpegArgs = getFfmpegArgs();
+        if (ffmpegArgs != null) {
+            command.add("--ffmpeg-args");
+            command.add(ffmpegArgs);
+        }
+
+        command.add("--threads");
+        command.add("8");
+        command.add("--output");
+        command.add(outputPattern);
+        command.add("--print-errors");
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+
+        if (proxyServer != null && !proxyServer.isEmpty()) {
+            pb.environment().put("HTTP_PROXY", proxyServer);
+            pb.environment().put("HTTPS_PROXY", proxyServer);
+        }
+
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        DownloadScheduler.bindProcess(process);
+        return process;
+    }
 
-        cleanupTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                System.out.println("executando auto-limpeza...");
-                cleanupOldFiles();
+    public void cleanupOldFiles() {
+        try {
+            long now = System.currentTimeMillis();
+            int deleted = 0;
+            Set<String> pinned = cachePolicy.getPinnedTracks();
+
+            for (TrackCacheIndex.CacheEntry entry : cacheIndex.entries()) {
+                long fileAge = now - entry.getLastModified();
+                if (fileAge > 15552000000L && !pinned.contains(entry.getTrackId())) {
+                    if (Files.deleteIfExists(cacheIndex.resolve(entry))) {
+                        deleted++;
+                    }
+                    cacheIndex.remove(entry.getTrackId());
+                }
             }
+
+            if (deleted > 0) {
+                System.out.println("auto-limpeza: removeu " + deleted + " arquivos com +180 dias");
+            }
+            cacheIndex.save();
+        } catch (Exception e) {
+            System.err.println("erro ao limpar arquivos: " + e.getMessage());
+        }
+    }
+
+    public void startAutoCleanup() {
+        TimerService.getInstance().scheduleAtFixedRate("auto-cleanup", () -> {
+            System.out.println("executando auto-limpeza...");
+            cleanupOldFiles();
+            cachePolicy.enforceBudget();
         }, 0, 86400000);
 
         System.out.println("auto-limpeza iniciada (arquivos +180 dias serao removidos a cada 24h)");
@@ -235,18 +835,44 @@ public class SpotifyDownloader {
         return downloadDir;
     }
 
+    public TrackCacheIndex getCacheIndex() {
+        return cacheIndex;
+    }
+
+    public String getAudioFormat() {
+        return audioFormat;
+    }
+
+    /**
+     * Para opus, força 48 kHz estéreo (o formato do Discord), permitindo que o lavaplayer
+     * repasse os frames opus sem transcodificar.
+     */
+    String getFfmpegArgs() {
+        return audioFormat.equals("opus") ? "-ar 48000 -ac 2" : null;
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    public LoudnessAnalyzer getLoudnessAnalyzer() {
+        return loudnessAnalyzer;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
 
     private String checkCache(String spotifyUrl) {
         try {
             String trackId = extractTrackId(spotifyUrl);
             if (trackId == null) return null;
 
-            File[] files = downloadDir.toFile().listFiles((dir, name) ->
-                name.endsWith(".mp3") && name.contains(trackId)
-            );
-
-            if (files != null && files.length > 0) {
-                return files[0].getAbsolutePath();
+            Path file = cacheIndex.lookup(trackId);
+            if (file != null) {
+                cacheIndex.recordAccess(trackId);
+                return file.toAbsolutePath().toString();
             }
 
             return null;
@@ -255,7 +881,7 @@ public class SpotifyDownloader {
         }
     }
 
-    private String extractTrackId(String url) {
+    static String extractTrackId(String url) {
         try {
             String[] parts = url.split("/track/");
             if (parts.length > 1) {
@@ -282,6 +908,7 @@ public class SpotifyDownloader {
                     System.out.println("🗑️ Limpou " + deleted + " arquivo(s) da pasta music/");
                 }
             }
+            cacheIndex.clear();
         } catch (Exception e) {
             System.err.println("erro ao limpar pasta music/: " + e.getMessage());
         }
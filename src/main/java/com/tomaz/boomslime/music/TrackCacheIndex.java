@@ -0,0 +1,435 @@
+package com.tomaz.boomslime.music;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Índice em memória trackId -> arquivo da pasta de músicas.
+ * Persistido em disco, reconciliado com a pasta no startup e mantido atualizado por um WatchService.
+ */
+public class TrackCacheIndex {
+    private static final Pattern TRACK_FILE_PATTERN = Pattern.compile("\\[([a-zA-Z0-9]+)\\]\\.(mp3|opus)$");
+    private static final long FLUSH_INTERVAL_MS = 30000;
+    private static final long DOWNLOAD_LOOKUP_WAIT_MS = 2000;
+
+    private final Path musicDir;
+    private final Path indexFile;
+    private final String preferredExtension;
+    private final Map<String, CacheEntry> entries;
+    private final AtomicBoolean dirty;
+    private WatchService watchService;
+
+    public TrackCacheIndex(Path musicDir, Path indexFile, String preferredExtension) {
+        this.musicDir = musicDir;
+        this.indexFile = indexFile;
+        this.preferredExtension = "." + preferredExtension;
+        this.entries = new ConcurrentHashMap<>();
+        this.dirty = new AtomicBoolean(false);
+    }
+
+    public void start() {
+        load();
+        rebuild();
+        startWatcher();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::save, "CacheIndexShutdown"));
+    }
+
+    /**
+     * Extrai o trackId do nome de um arquivo baixado ("... [trackId].mp3" ou ".opus").
+     */
+    public static String parseTrackId(String fileName) {
+        Matcher matcher = TRACK_FILE_PATTERN.matcher(fileName);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+    public Path lookup(String trackId) {
+        if (trackId == null) return null;
+
+        CacheEntry entry = entries.get(trackId);
+        if (entry == null) return null;
+
+        Path file = musicDir.resolve(entry.getFileName());
+        if (!Files.exists(file)) {
+            remove(trackId);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Busca logo apos o spotdl terminar: espera o watcher registrar o arquivo novo
+     * e, se ele nao aparecer, faz um glob restrito ao trackId como ultimo recurso.
+     */
+    public Path lookupAfterDownload(String trackId) {
+        Path file = lookup(trackId);
+        if (file != null) return file;
+
+        long deadline = System.currentTimeMillis() + DOWNLOAD_LOOKUP_WAIT_MS;
+        synchronized (this) {
+            while ((file = lookup(trackId)) == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+        if (file != null) return file;
+
+        return findOnDisk(trackId);
+    }
+
+    /**
+     * Busca sem esperar pelo watcher: o índice ou, se o arquivo ainda não foi indexado,
+     * o glob restrito ao trackId.
+     */
+    public Path lookupOrFind(String trackId) {
+        Path file = lookup(trackId);
+        return file != null ? file : findOnDisk(trackId);
+    }
+
+    private Path findOnDisk(String trackId) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(musicDir, "*\\[" + trackId + "\\].*")) {
+            for (Path candidate : stream) {
+                if (put(candidate)) {
+                    return candidate;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("erro ao procurar arquivo do track " + trackId + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    public boolean put(Path file) {
+        String trackId = parseTrackId(file.getFileName().toString());
+        if (trackId == null) return false;
+
+        long size = 0;
+        long lastModified = System.currentTimeMillis();
+        try {
+            size = Files.size(file);
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException ignored) {}
+
+        String fileName = file.getFileName().toString();
+        CacheEntry previous = entries.get(trackId);
+        if (previous != null && !previous.getFileName().equals(fileName) && !fileName.endsWith(preferredExtension)
+                && previous.getFileName().endsWith(preferredExtension) && Files.exists(resolve(previous))) {
+            return true;
+        }
+
+        CacheEntry entry = new CacheEntry(trackId, fileName, size, lastModified);
+        if (previous != null) {
+            entry.copyAccess(previous);
+        }
+        entries.put(trackId, entry);
+        dirty.set(true);
+
+        synchronized (this) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Registra que a track foi usada (hit no cache), para a politica de eviction.
+     */
+    public void recordAccess(String trackId) {
+        CacheEntry entry = entries.get(trackId);
+        if (entry != null) {
+            entry.touch();
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Guarda o ganho de normalização (dB) calculado para a track.
+     */
+    public void setGainDb(String trackId, float gainDb) {
+        CacheEntry entry = entries.get(trackId);
+        if (entry != null) {
+            entry.gainDb = gainDb;
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * @return ganho de normalização em dB, ou NaN se a track ainda não foi analisada
+     */
+    public float getGainDb(String trackId) {
+        CacheEntry entry = trackId != null ? entries.get(trackId) : null;
+        return entry != null ? entry.gainDb : Float.NaN;
+    }
+
+    public long totalBytes() {
+        long total = 0;
+        for (CacheEntry entry : entries.values()) {
+            total += entry.getSize();
+        }
+        return total;
+    }
+
+    public void remove(String trackId) {
+        if (entries.remove(trackId) != null) {
+            dirty.set(true);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        dirty.set(true);
+        save();
+    }
+
+    public Collection<CacheEntry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Path resolve(CacheEntry entry) {
+        return musicDir.resolve(entry.getFileName());
+    }
+
+    /**
+     * Reconcilia o indice com a pasta (uma unica listagem, feita no startup ou em OVERFLOW do watcher).
+     */
+    public void rebuild() {
+        Map<String, CacheEntry> found = new ConcurrentHashMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(musicDir)) {
+            for (Path file : stream) {
+                String fileName = file.getFileName().toString();
+                String trackId = parseTrackId(fileName);
+                if (trackId == null) continue;
+
+                CacheEntry current = found.get(trackId);
+                if (current != null && current.getFileName().endsWith(preferredExtension)) continue;
+
+                CacheEntry known = entries.get(trackId);
+                long size = Files.size(file);
+                long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+                if (known != null && known.getFileName().equals(fileName)) {
+                    known.update(size, lastModified);
+                    found.put(trackId, known);
+                } else {
+                    found.put(trackId, new CacheEntry(trackId, fileName, size, lastModified));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("erro ao reconstruir indice do cache: " + e.getMessage());
+            return;
+        }
+
+        entries.keySet().retainAll(found.keySet());
+        entries.putAll(found);
+        dirty.set(true);
+        save();
+
+        System.out.println("indice do cache: " + entries.size() + " musicas");
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile)) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                CacheEntry entry = CacheEntry.parse(line);
+                if (entry != null) {
+                    entries.put(entry.getTrackId(), entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("erro ao carregar indice do cache: " + e.getMessage());
+        }
+    }
+
+    public synchronized void save() {
+        if (!dirty.getAndSet(false)) return;
+
+        try {
+            Files.createDirectories(indexFile.toAbsolutePath().getParent());
+            Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (CacheEntry entry : entries.values()) {
+                    writer.write(entry.serialize());
+                    writer.newLine();
+                }
+            }
+
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            System.err.println("erro ao salvar indice do cache: " + e.getMessage());
+        }
+    }
+
+    private void startWatcher() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            musicDir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            System.err.println("erro ao iniciar watcher do cache: " + e.getMessage());
+            return;
+        }
+
+        Thread watcher = new Thread(this::watchLoop, "CacheIndexWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop() {
+        long lastFlush = System.currentTimeMillis();
+
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            if (key != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    handleEvent(event);
+                }
+                key.reset();
+            }
+
+            if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL_MS) {
+                save();
+                lastFlush = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void handleEvent(WatchEvent<?> event) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            rebuild();
+            return;
+        }
+
+        Path file = musicDir.resolve((Path) event.context());
+        String trackId = parseTrackId(file.getFileName().toString());
+        if (trackId == null) return;
+
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            CacheEntry entry = entries.get(trackId);
+            if (entry != null && entry.getFileName().equals(file.getFileName().toString())) {
+                remove(trackId);
+            }
+        } else {
+            put(file);
+        }
+    }
+
+    public static class CacheEntry {
+        private final String trackId;
+        private final String fileName;
+        private volatile long size;
+        private volatile long lastModified;
+        private volatile long lastAccess;
+        private volatile float gainDb = Float.NaN;
+        private final AtomicLong hits;
+
+        CacheEntry(String trackId, String fileName, long size, long lastModified) {
+            this.trackId = trackId;
+            this.fileName = fileName;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.lastAccess = lastModified;
+            this.hits = new AtomicLong();
+        }
+
+        void update(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+            hits.incrementAndGet();
+        }
+
+        void copyAccess(CacheEntry other) {
+            lastAccess = other.lastAccess;
+            hits.set(other.hits.get());
+            gainDb = other.gainDb;
+        }
+
+        public String getTrackId() {
+            return trackId;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getLastAccess() {
+            return lastAccess;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public float getGainDb() {
+            return gainDb;
+        }
+
+        String serialize() {
+            return trackId + "\t" + fileName + "\t" + size + "\t" + lastModified + "\t" + lastAccess + "\t" + hits.get()
+                + "\t" + (Float.isNaN(gainDb) ? "" : String.valueOf(gainDb));
+        }
+
+        static CacheEntry parse(String line) {
+            String[] parts = line.split("\t");
+            if (parts.length < 4) return null;
+
+            try {
+                CacheEntry entry = new CacheEntry(parts[0], parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+                entry.lastAccess = parts.length > 4 ? Long.parseLong(parts[4]) : entry.lastModified;
+                entry.hits.set(parts.length > 5 ? Long.parseLong(parts[5]) : 0);
+                entry.gainDb = parts.length > 6 && !parts[6].isEmpty() ? Float.parseFloat(parts[6]) : Float.NaN;
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
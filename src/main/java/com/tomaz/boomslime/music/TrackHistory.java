@@ -0,0 +1,82 @@
+package com.tomaz.boomslime.music;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Histórico de tamanho fixo num anel: a música mais antiga é sobrescrita quando enche,
+ * sem deslocar as outras. Como a {@link TrackQueue}, o acesso é serializado pelo {@link TrackScheduler}.
+ */
+public class TrackHistory {
+    private final AudioTrack[] ring;
+    private int next = 0;
+    private int size = 0;
+    private long version = 0;
+
+    public TrackHistory(int capacity) {
+        this.ring = new AudioTrack[Math.max(1, capacity)];
+    }
+
+    public void push(AudioTrack track) {
+        ring[next] = track;
+        next = (next + 1) % ring.length;
+        version++;
+        if (size < ring.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Remove e devolve a música mais recente, ou null se o histórico estiver vazio.
+     */
+    public AudioTrack pop() {
+        if (size == 0) {
+            return null;
+        }
+
+        next = (next - 1 + ring.length) % ring.length;
+        AudioTrack track = ring[next];
+        ring[next] = null;
+        size--;
+        version++;
+        return track;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Muda a cada push, pop ou clear.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void clear() {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        next = 0;
+        size = 0;
+        version++;
+    }
+
+    /**
+     * Cópia do histórico, da mais antiga para a mais recente (no máximo {@code capacity} itens).
+     */
+    public List<AudioTrack> toList() {
+        List<AudioTrack> tracks = new ArrayList<>(size);
+        int start = (next - size + ring.length) % ring.length;
+        for (int i = 0; i < size; i++) {
+            tracks.add(ring[(start + i) % ring.length]);
+        }
+        return tracks;
+    }
+}
@@ -0,0 +1,283 @@
+package com.tomaz.boomslime.music;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fila de reprodução sobre um array circular: leitura de qualquer posição, inserção nas
+ * duas pontas e inserção em lote em O(1) amortizado; shuffle, remoção e move no próprio array.
+ * <p>
+ * {@link #snapshot} devolve uma visão somente leitura que compartilha o array (copy-on-write):
+ * o array só é copiado na primeira mudança depois de um snapshot, e snapshots pedidos sem
+ * mudança no meio são o mesmo objeto. Os comandos paginam o snapshot sem copiar a fila.
+ * Só os comandos pedem snapshot; leituras internas usam {@link #get} e {@link #size}, para
+ * não forçar a cópia na próxima mudança.
+ * Não é thread-safe: quem usa (o {@link TrackScheduler}) serializa o acesso.
+ */
+public class TrackQueue {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private QueuedTrack[] items;
+    private int head = 0;
+    private int size = 0;
+    private long version = 0;
+    private boolean shared = false;
+    private Snapshot snapshot;
+
+    public TrackQueue() {
+        this.items = new QueuedTrack[INITIAL_CAPACITY];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Muda a cada alteração da fila.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public QueuedTrack get(int index) {
+        checkIndex(index, size);
+        return items[slot(index)];
+    }
+
+    public QueuedTrack peek() {
+        return size == 0 ? null : items[head];
+    }
+
+    public QueuedTrack poll() {
+        if (size == 0) {
+            return null;
+        }
+
+        beforeWrite();
+        QueuedTrack first = items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        size--;
+        return first;
+    }
+
+    public void addFirst(QueuedTrack entry) {
+        ensureCapacity(size + 1);
+        beforeWrite();
+        head = (head - 1 + items.length) % items.length;
+        items[head] = entry;
+        size++;
+    }
+
+    public void addLast(QueuedTrack entry) {
+        ensureCapacity(size + 1);
+        beforeWrite();
+        items[slot(size)] = entry;
+        size++;
+    }
+
+    /**
+     * Insere várias entradas no fim com no máximo um crescimento do array.
+     */
+    public void addAll(Collection<QueuedTrack> entries) {
+        ensureCapacity(size + entries.size());
+        beforeWrite();
+        for (QueuedTrack entry : entries) {
+            items[slot(size)] = entry;
+            size++;
+        }
+    }
+
+    public QueuedTrack removeAt(int index) {
+        checkIndex(index, size);
+        beforeWrite();
+
+        QueuedTrack removed = items[slot(index)];
+        for (int i = index; i < size - 1; i++) {
+            items[slot(i)] = items[slot(i + 1)];
+        }
+        items[slot(size - 1)] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Move a entrada de {@code from} para {@code to}, deslocando as que estão entre as duas.
+     */
+    public void move(int from, int to) {
+        checkIndex(from, size);
+        checkIndex(to, size);
+        if (from == to) {
+            return;
+        }
+        beforeWrite();
+
+        QueuedTrack moving = items[slot(from)];
+        int step = from < to ? 1 : -1;
+        for (int i = from; i != to; i += step) {
+            items[slot(i)] = items[slot(i + step)];
+        }
+        items[slot(to)] = moving;
+    }
+
+    /**
+     * Fisher-Yates direto no array.
+     */
+    public void shuffle() {
+        if (size < 2) {
+            return;
+        }
+        beforeWrite();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int a = slot(i);
+            int b = slot(j);
+            QueuedTrack tmp = items[a];
+            items[a] = items[b];
+            items[b] = tmp;
+        }
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+
+        if (shared) {
+            // o snapshot continua com o array antigo
+            items = new QueuedTrack[INITIAL_CAPACITY];
+            shared = false;
+        } else {
+            for (int i = 0; i < size; i++) {
+                items[slot(i)] = null;
+            }
+        }
+        head = 0;
+        size = 0;
+        version++;
+        snapshot = null;
+    }
+
+    /**
+     * Visão somente leitura da fila neste momento.
+     *
+     * @param lead entrada mostrada antes da fila (a que está esperando o download para tocar), ou null
+     */
+    public Snapshot snapshot(QueuedTrack lead) {
+        if (snapshot == null || snapshot.lead != lead) {
+            snapshot = new Snapshot(items, head, size, version, lead);
+            shared = true;
+        }
+        return snapshot;
+    }
+
+    private int slot(int index) {
+        return (head + index) % items.length;
+    }
+
+    /**
+     * Chamado antes de toda escrita: se um snapshot aponta para o array, copia antes de mudar.
+     */
+    private void beforeWrite() {
+        if (shared) {
+            items = copy(items.length);
+            shared = false;
+        }
+        version++;
+        snapshot = null;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= items.length) {
+            return;
+        }
+
+        int capacity = items.length;
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        items = copy(capacity);
+        shared = false;
+    }
+
+    private QueuedTrack[] copy(int capacity) {
+        QueuedTrack[] copy = new QueuedTrack[capacity];
+        for (int i = 0; i < size; i++) {
+            copy[i] = items[slot(i)];
+        }
+        head = 0;
+        return copy;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("indice " + index + ", tamanho " + size);
+        }
+    }
+
+    /**
+     * Fila congelada numa versão. Leitura de qualquer posição em O(1), sem cópia.
+     */
+    public static class Snapshot extends AbstractList<QueuedTrack> implements RandomAccess {
+        private final QueuedTrack[] items;
+        private final int head;
+        private final int size;
+        private final long version;
+        private final QueuedTrack lead;
+
+        private Snapshot(QueuedTrack[] items, int head, int size, long version, QueuedTrack lead) {
+            this.items = items;
+            this.head = head;
+            this.size = size;
+            this.version = version;
+            this.lead = lead;
+        }
+
+        @Override
+        public QueuedTrack get(int index) {
+            if (lead != null) {
+                if (index == 0) {
+                    return lead;
+                }
+                index--;
+            }
+            checkIndex(index, size);
+            return items[(head + index) % items.length];
+        }
+
+        @Override
+        public int size() {
+            return size + (lead != null ? 1 : 0);
+        }
+
+        /**
+         * Versão da fila no momento do snapshot ({@link TrackQueue#getVersion}).
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Entrada mostrada antes da fila, que está baixando para tocar em seguida, ou null.
+         */
+        public QueuedTrack getPending() {
+            return lead;
+        }
+
+        public QueuedTrack first() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return get(0);
+        }
+    }
+}
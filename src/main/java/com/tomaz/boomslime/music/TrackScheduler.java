@@ -2,193 +2,842 @@ package com.tomaz.boomslime.music;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.Units;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.tomaz.boomslime.config.BotConfig;
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+import com.tomaz.boomslime.util.SerialExecutor;
+import com.tomaz.boomslime.util.TimerService;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Fila de reprodução de uma guild. As entradas podem ser só metadados do Spotify
+ * ({@link QueuedTrack#lazy}); o áudio delas é baixado pelo {@link TrackLoader} quando
+ * ficam entre as {@code QUEUE_LOOKAHEAD} primeiras da fila.
+ * <p>
+ * O estado é de um ator: comandos, eventos do lavaplayer, downloads e a thread de áudio só
+ * enviam tarefas para a {@link SerialExecutor} da guild, que as roda uma de cada vez.
+ * A thread de áudio nunca espera por ela; só lê {@code active}, que é volátil.
+ * <p>
+ * Ao fim de cada tarefa a caixa publica uma visão somente leitura em campos voláteis
+ * (trackIds em uso, se está ocioso, o último snapshot da fila), para quem está fora da
+ * guild (política de cache, verificação de ociosidade) ler sem esperar pela caixa.
+ * <p>
+ * Cada mudança da fila também vai para o {@link QueueJournal} da guild, de onde a sessão é
+ * restaurada depois de um restart ({@link #restore}).
+ */
 public class TrackScheduler extends AudioEventAdapter {
-    private final AudioPlayer player;
-    private final BlockingQueue<AudioTrack> queue;
-    private final List<AudioTrack> history;
-    private AudioTrack lastTrack;
+    private final AudioPlayer[] decks;
+    private final SerialExecutor mailbox;
+    private volatile int active = 0;
+    private volatile boolean fadeSwap = false;
+    private final TrackQueue queue;
+    private final TrackHistory history;
+    private final int lookahead;
     private MessageChannel textChannel;
+    private TrackLoader trackLoader;
+    private QueuedTrack pendingStart;
+    private final long preloadLeadMs;
+    private QueuedTrack preloaded;
+    private AudioTrack discardedPreload;
+    private volatile AudioTrack preloadChecked;
+    private ScheduledFuture<?> nowPlayingMessage;
+    private QueueJournal journal;
+    private volatile ScheduledFuture<?> checkpointTask;
+    private volatile Runnable outputFlush = () -> { };
+    private long voiceChannelId;
+    private long lastCheckpoint = -1;
+    private QueuedTrack resumeEntry;
+    private long resumePosition;
+    private volatile Set<String> inUseTrackIds = Set.of();
+    private volatile boolean idle = true;
+    private volatile int queueSize = 0;
+    private volatile TrackQueue.Snapshot queueView;
+    private long publishedQueueVersion = -1;
+    private long publishedHistoryVersion = -1;
+    private QueuedTrack publishedPending;
+    private AudioTrack publishedPlaying;
+
+    private static final long NOW_PLAYING_DELAY_MS = 1500;
+    private static final int HISTORY_SIZE = 50;
+
+
+    /**
+     * Baixa e carrega as entradas preguiçosas. Cada future completa com o track
+     * carregado, ou null se o download falhar.
+     */
+    public interface TrackLoader {
+        List<CompletableFuture<AudioTrack>> load(List<SpotifyTrackInfo> tracks, DownloadPriority priority);
+    }
 
-    private static final long FADE_DURATION = 3000;
-    private Timer fadeTimer;
-    private boolean fadeStarted = false;
+    /**
+     * @param standby segundo player (crossfade e pré-carregamento), ou null para tocar num só
+     * @param preloadLeadMs quanto antes do fim da música atual a próxima é aberta no segundo player
+     */
+    public TrackScheduler(long guildId, AudioPlayer player, AudioPlayer standby, long preloadLeadMs) {
+        this.decks = standby != null ? new AudioPlayer[] {player, standby} : new AudioPlayer[] {player};
+        this.mailbox = new SerialExecutor("guild-" + guildId);
+        this.preloadLeadMs = preloadLeadMs;
+        this.queue = new TrackQueue();
+        this.history = new TrackHistory(HISTORY_SIZE);
+        this.lookahead = Math.max(1, Integer.parseInt(BotConfig.get("QUEUE_LOOKAHEAD", "3")));
+        this.journal = QueueJournal.open(guildId);
+    }
 
-    public TrackScheduler(AudioPlayer player) {
-        this.player = player;
-        this.queue = new LinkedBlockingQueue<>();
-        this.history = new ArrayList<>();
-        this.fadeTimer = new Timer("FadeTimer", true);
+    /**
+     * Agenda o checkpoint periódico da posição no diário. Chamado pelo {@link GuildMusicManager}
+     * depois de construir o scheduler, para a tarefa não ver o objeto pela metade.
+     */
+    public void start() {
+        if (journal == null || checkpointTask != null) {
+            return;
+        }
+
+        long checkpointMs = Math.max(1000, Long.parseLong(BotConfig.get("JOURNAL_CHECKPOINT_MS", "5000")));
+        checkpointTask = TimerService.getInstance().scheduleAtFixedRate("journal-checkpoint",
+            () -> mailbox.execute(this::checkpoint), checkpointMs, checkpointMs);
     }
 
-    public void setTextChannel(MessageChannel channel) {
-        this.textChannel = channel;
+    /**
+     * Envia uma tarefa para a caixa; depois dela a visão publicada é atualizada.
+     */
+    private void post(Runnable task) {
+        mailbox.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                publish();
+            }
+        });
     }
 
-    public void queue(AudioTrack track) {
-        if (!this.player.startTrack(track, true)) {
-            this.queue.offer(track);
+    private <T> T ask(Supplier<T> task) {
+        return mailbox.call(() -> {
+            try {
+                return task.get();
+            } finally {
+                publish();
+            }
+        });
+    }
+
+    /**
+     * Atualiza a visão lida de fora da caixa. O conjunto de trackIds só é refeito quando a
+     * fila, o histórico, a entrada pendente ou a música atual mudaram.
+     */
+    private void publish() {
+        AudioTrack playing = getPlayer().getPlayingTrack();
+        idle = playing == null && pendingStart == null && queue.isEmpty();
+        queueSize = queue.size();
+
+        if (queue.getVersion() != publishedQueueVersion || pendingStart != publishedPending) {
+            queueView = null;
+        } else if (history.getVersion() == publishedHistoryVersion && playing == publishedPlaying) {
+            return;
         }
+
+        publishedQueueVersion = queue.getVersion();
+        publishedHistoryVersion = history.getVersion();
+        publishedPending = pendingStart;
+        publishedPlaying = playing;
+
+        Set<String> trackIds = new HashSet<>();
+        addTrackId(trackIds, playing);
+        if (pendingStart != null) {
+            addTrackId(trackIds, pendingStart.getTrackId());
+        }
+        for (int i = 0; i < queue.size(); i++) {
+            addTrackId(trackIds, queue.get(i).getTrackId());
+        }
+        for (AudioTrack track : history.toList()) {
+            addTrackId(trackIds, track);
+        }
+        inUseTrackIds = Collections.unmodifiableSet(trackIds);
     }
 
-    public void nextTrack() {
-        AudioTrack nextTrack = this.queue.poll();
-        player.startTrack(nextTrack, false);
+    private static void addTrackId(Set<String> trackIds, AudioTrack track) {
+        if (track != null) {
+            addTrackId(trackIds, TrackCacheIndex.parseTrackId(track.getIdentifier()));
+        }
     }
 
-    public boolean rewind() {
-        if (history.isEmpty()) {
-            return false;
+    private static void addTrackId(Set<String> trackIds, String trackId) {
+        if (trackId != null) {
+            trackIds.add(trackId);
         }
+    }
+
+    /**
+     * TrackIds da música atual, da pendente, da fila e do histórico, como publicados pela
+     * última tarefa da caixa. Não espera pela caixa.
+     */
+    public Set<String> getInUseTrackIds() {
+        return inUseTrackIds;
+    }
 
-        AudioTrack previousTrack = history.remove(history.size() - 1);
+    public void setTextChannel(MessageChannel channel) {
+        post(() -> {
+            this.textChannel = channel;
+            record(j -> j.channels(voiceChannelId, textChannelId()));
+        });
+    }
 
-        AudioTrack currentTrack = player.getPlayingTrack();
-        if (currentTrack != null) {
-            List<AudioTrack> tempQueue = new ArrayList<>();
-            queue.drainTo(tempQueue);
+    /**
+     * Canal de voz da sessão, guardado no diário para reconectar depois de um restart.
+     */
+    public void setVoiceChannel(long channelId) {
+        post(() -> {
+            if (voiceChannelId != channelId) {
+                voiceChannelId = channelId;
+                record(j -> j.channels(voiceChannelId, textChannelId()));
+            }
+        });
+    }
 
-            queue.clear();
+    /**
+     * Recoloca na fila o que o diário da sessão anterior tinha e volta a tocar a música
+     * atual de onde parou. As entradas são preguiçosas: o áudio sai do cache de arquivos,
+     * sem Spotify nem spotdl para o que já foi baixado.
+     */
+    public void restore(QueueJournal.State state) {
+        post(() -> {
+            List<QueuedTrack> entries = new ArrayList<>();
+            SpotifyTrackInfo current = state.getCurrent();
+            if (current != null && current.getId() != null) {
+                QueuedTrack entry = QueuedTrack.lazy(current);
+                resumeEntry = entry;
+                resumePosition = state.getPositionMs();
+                entries.add(entry);
+            }
+            for (SpotifyTrackInfo info : state.getQueue()) {
+                entries.add(QueuedTrack.lazy(info));
+            }
 
-            queue.offer(currentTrack.makeClone());
+            queue.addAll(entries);
+            record(j -> j.enqueueAll(entries));
+            if (getPlayer().getPlayingTrack() == null && pendingStart == null) {
+                startNext();
+            }
+        });
+    }
+
+    /**
+     * Chamado quando a música atual é trocada ou parada, para o áudio dela que ainda está no
+     * buffer de envio não continuar tocando.
+     */
+    public void setOutputFlush(Runnable outputFlush) {
+        this.outputFlush = outputFlush;
+    }
+
+    public void setTrackLoader(TrackLoader trackLoader) {
+        post(() -> this.trackLoader = trackLoader);
+    }
 
-            queue.addAll(tempQueue);
+    /**
+     * Player que está tocando a música atual (no crossfade, o que tem a música que está entrando).
+     */
+    public AudioPlayer getPlayer() {
+        return decks[active];
+    }
+
+    /**
+     * Player com a música que está saindo durante um crossfade, ou null sem crossfade.
+     */
+    public AudioPlayer getOutgoingPlayer() {
+        return decks.length > 1 ? decks[1 - active] : null;
+    }
+
+    /**
+     * Índice do player atual; muda a cada troca de player.
+     */
+    public int getActiveDeck() {
+        return active;
+    }
+
+    /**
+     * Se a última troca de player foi um crossfade (a música anterior continua tocando até sumir).
+     * Escrito antes de {@code active}, então quem viu a troca vê o valor dela.
+     */
+    public boolean isFadeSwap() {
+        return fadeSwap;
+    }
+
+    private void swapDeck(boolean fade) {
+        fadeSwap = fade;
+        active = 1 - active;
+    }
+
+    /**
+     * Chamado pelo send handler a cada frame, na thread de áudio: quando faltam
+     * {@code preloadLeadMs} para a música atual acabar, abre a próxima no outro player.
+     */
+    public void pollPreload() {
+        if (decks.length < 2 || preloadLeadMs <= 0) {
+            return;
         }
 
-        player.startTrack(previousTrack, false);
-        return true;
+        AudioPlayer player = getPlayer();
+        AudioTrack playing = player.getPlayingTrack();
+        if (playing == null || playing == preloadChecked || player.isPaused()) {
+            return;
+        }
+
+        long duration = playing.getDuration();
+        if (duration != Units.DURATION_MS_UNKNOWN && duration - playing.getPosition() <= preloadLeadMs) {
+            preloadChecked = playing;
+            post(this::preloadNext);
+        }
     }
 
-    public void stop() {
-        if (fadeTimer != null) {
-            fadeTimer.cancel();
-            fadeTimer = new Timer("FadeTimer", true);
+    /**
+     * Começa a próxima entrada pausada no outro player: o lavaplayer já abre o arquivo
+     * e enche o buffer de frames, e a troca acontece no frame seguinte ao fim da atual.
+     */
+    private void preloadNext() {
+        QueuedTrack next = queue.peek();
+        AudioPlayer standby = decks[1 - active];
+        if (preloaded != null || pendingStart != null || next == null || !next.isLoaded()
+                || standby.getPlayingTrack() != null) {
+            return;
         }
 
-        queue.clear();
-        history.clear();
-        player.stopTrack();
-        fadeStarted = false;
+        standby.setPaused(true);
+        preloaded = next;
+        standby.startTrack(next.getTrack(), false);
+        System.out.println("⏩ Pre-carregando " + next.getTitle());
     }
 
-    public List<AudioTrack> getQueue() {
-        return new ArrayList<>(queue);
+    /**
+     * Passa a tocar a entrada pré-carregada, se ela ainda for a próxima da fila.
+     *
+     * @param stopCurrent false no crossfade, quando a música atual continua tocando até sumir
+     */
+    private boolean swapToPreloaded(boolean stopCurrent) {
+        if (preloaded == null) {
+            return false;
+        }
+
+        AudioPlayer standby = decks[1 - active];
+        if (queue.peek() != preloaded || standby.getPlayingTrack() != preloaded.getTrack()) {
+            cancelPreload();
+            return false;
+        }
+
+        queue.poll();
+        record(QueueJournal::poll);
+        preloaded = null;
+        AudioPlayer current = getPlayer();
+        swapDeck(!stopCurrent);
+        standby.setPaused(false);
+        if (stopCurrent) {
+            current.stopTrack();
+        }
+
+        announce(standby.getPlayingTrack());
+        return true;
     }
 
+    /**
+     * Desfaz o pré-carregamento (a fila mudou). O track já foi usado pelo outro player,
+     * então a entrada fica com um clone para poder tocar depois.
+     */
+    private void cancelPreload() {
+        QueuedTrack entry = preloaded;
+        if (entry == null) {
+            return;
+        }
 
-    public List<AudioTrack> getHistory() {
-        return Collections.unmodifiableList(history);
+        preloaded = null;
+        preloadChecked = null;
+        // o fim deste track no outro player não é uma música que tocou
+        discardedPreload = entry.getTrack();
+        decks[1 - active].stopTrack();
+        entry.recycle();
     }
 
-    public void shuffle() {
-        List<AudioTrack> tracks = new ArrayList<>(queue);
-        Collections.shuffle(tracks);
-        queue.clear();
-        queue.addAll(tracks);
+    /**
+     * Chamado pelo {@link CrossfadeSendHandler} quando falta a janela do crossfade para a
+     * música atual acabar: começa a próxima no outro player, que passa a ser o atual.
+     * O handler percebe a troca por {@link #getActiveDeck} e {@link #isFadeSwap}; se não
+     * há outro player ou a próxima entrada ainda não foi baixada, nada muda.
+     */
+    public void requestCrossfade() {
+        post(this::startCrossfade);
     }
 
-    @Override
-    public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
-        if (endReason != AudioTrackEndReason.STOPPED && endReason != AudioTrackEndReason.CLEANUP) {
-            if (history.size() >= 50) {
-                history.remove(0);
-            }
-            history.add(track.makeClone());
+    private void startCrossfade() {
+        if (swapToPreloaded(false)) {
+            return;
         }
 
-        if (endReason.mayStartNext) {
-            AudioTrack nextTrack = this.queue.poll();
-            player.startTrack(nextTrack, false);
+        QueuedTrack next = queue.peek();
+        if (decks.length < 2 || pendingStart != null || next == null || !next.isLoaded()) {
+            return;
         }
+        queue.poll();
+        record(QueueJournal::poll);
+
+        AudioPlayer incoming = decks[1 - active];
+        incoming.stopTrack();
+        incoming.setPaused(false);
+        swapDeck(true);
+        incoming.startTrack(next.getTrack(), false);
     }
 
-    @Override
-    public void onTrackStart(AudioPlayer player, AudioTrack track) {
-        this.lastTrack = track;
-        this.fadeStarted = false;
-        scheduleFadeOut(track);
+    /**
+     * Fim da rampa de crossfade: para a música que saiu. Se os players trocaram de novo
+     * antes da caixa rodar a tarefa, a música que está saindo agora não é tocada.
+     *
+     * @param deck player que era o atual quando a rampa terminou
+     */
+    public void finishCrossfade(int deck) {
+        post(() -> {
+            if (active == deck) {
+                stopOutgoing();
+            }
+        });
+    }
 
-        if (textChannel != null) {
-            Timer msgTimer = new Timer("NowPlayingMessageTimer", true);
-            msgTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    String artist = track.getInfo().author;
-                    String title = track.getInfo().title;
-                    textChannel.sendMessage("> ▶ **" + artist + " - " + title + "**").queue();
-                    msgTimer.cancel();
-                }
-            }, 1500);
+    /**
+     * Para a música que estava saindo (skip, rewind ou stop no meio de um crossfade).
+     */
+    private void stopOutgoing() {
+        AudioPlayer outgoing = getOutgoingPlayer();
+        if (outgoing != null && preloaded == null) {
+            outgoing.stopTrack();
         }
     }
 
-    private void scheduleFadeOut(AudioTrack track) {
-        if (fadeTimer != null) {
-            fadeTimer.cancel();
-            fadeTimer = new Timer("FadeTimer", true);
+    public void queue(AudioTrack track) {
+        post(() -> {
+            if (pendingStart != null || !getPlayer().startTrack(track, true)) {
+                QueuedTrack entry = QueuedTrack.of(track);
+                this.queue.addLast(entry);
+                record(j -> j.enqueue(entry));
+            }
+        });
+    }
+
+    /**
+     * Coloca as entradas no fim da fila de uma vez; só as primeiras são baixadas agora.
+     */
+    public void queueAll(List<QueuedTrack> entries) {
+        post(() -> {
+            queue.addAll(entries);
+            record(j -> j.enqueueAll(entries));
+
+            if (getPlayer().getPlayingTrack() == null && pendingStart == null) {
+                startNext();
+            } else {
+                prefetch();
+            }
+        });
+    }
+
+    public void nextTrack() {
+        post(() -> {
+            stopOutgoing();
+            startNext();
+        });
+    }
+
+    /**
+     * Toca a próxima entrada. Se o áudio dela ainda não estiver pronto, o player fica
+     * parado até o download terminar (com prioridade máxima).
+     */
+    private void startNext() {
+        if (swapToPreloaded(true)) {
+            pendingStart = null;
+            return;
+        }
+
+        AudioPlayer player = getPlayer();
+        pendingStart = null;
+        QueuedTrack next = queue.poll();
+        if (next != null) {
+            record(QueueJournal::poll);
         }
 
-        if (queue.isEmpty()) {
+        if (next == null) {
+            record(j -> j.current(null));
+            player.startTrack(null, false);
+            return;
+        }
+        if (next.isLoaded()) {
+            play(next, next.getTrack());
             return;
         }
 
-        long duration = track.getDuration();
-        if (duration < 8000) {
+        pendingStart = next;
+        record(j -> j.current(QueueJournal.infoOf(next)));
+        AudioTrack playing = player.getPlayingTrack();
+        if (playing != null) {
+            addToHistory(playing);
+            player.stopTrack();
+        }
+
+        CompletableFuture<AudioTrack> loading = next.getLoading();
+        if (loading == null) {
+            loading = load(List.of(next), DownloadPriority.NOW).get(0);
+        } else {
+            DownloadManager.getInstance().promote(next.getSpotifyInfo().getUrl(), DownloadPriority.NOW);
+        }
+        prefetch();
+
+        loading.whenComplete((track, error) -> post(() -> onPendingLoaded(next, track)));
+    }
+
+    private void onPendingLoaded(QueuedTrack entry, AudioTrack track) {
+        if (pendingStart != entry) {
             return;
         }
 
-        long fadeStartTime = duration - FADE_DURATION;
+        if (track != null) {
+            pendingStart = null;
+            play(entry, track);
+            return;
+        }
 
-        fadeTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                startFadeOut();
+        String unavailable = PlayerManager.unavailableMessage();
+        if (unavailable != null) {
+            // com o breaker aberto todas falhariam em sequencia: para na entrada atual
+            queue.addFirst(entry);
+            entry.unload();
+            pendingStart = null;
+            record(j -> j.enqueueFront(entry));
+            record(j -> j.current(null));
+            if (textChannel != null) {
+                textChannel.sendMessage(unavailable).queue();
             }
-        }, fadeStartTime);
+            return;
+        }
 
-        System.out.println("🎵 Fade-out agendado para " + (fadeStartTime / 1000) + "s");
+        System.err.println("❌ erro ao baixar " + entry.getTitle());
+        if (textChannel != null) {
+            textChannel.sendMessage("> ⚠ **" + entry.getTitle() + "** was skipped because it could not be downloaded.").queue();
+        }
+        startNext();
     }
 
-    private void startFadeOut() {
-        if (fadeStarted || queue.isEmpty()) {
+    /**
+     * Começa a entrada no player atual; a que foi restaurada do diário continua de onde parou.
+     */
+    private void play(QueuedTrack entry, AudioTrack track) {
+        if (entry == resumeEntry && resumePosition > 0 && track.isSeekable()) {
+            track.setPosition(resumePosition);
+        }
+        resumeEntry = null;
+        getPlayer().startTrack(track, false);
+    }
+
+    /**
+     * Garante que as primeiras entradas da fila estejam baixando: a primeira como NEXT,
+     * as demais juntas num único lote PREFETCH. Entradas mais para o fim não são baixadas.
+     */
+    private void prefetch() {
+        List<QueuedTrack> upcoming = new ArrayList<>();
+        int limit = Math.min(lookahead, queue.size());
+        for (int i = 0; i < limit; i++) {
+            QueuedTrack entry = queue.get(i);
+            if (entry.isLazy() && entry.getLoading() == null) {
+                upcoming.add(entry);
+            }
+        }
+
+        if (upcoming.isEmpty()) {
             return;
         }
 
-        fadeStarted = true;
-        System.out.println("🎵 Iniciando fade-out...");
+        if (upcoming.get(0) == queue.peek()) {
+            load(List.of(upcoming.remove(0)), DownloadPriority.NEXT);
+        }
+        if (!upcoming.isEmpty()) {
+            load(upcoming, DownloadPriority.PREFETCH);
+        }
+    }
+
+    private List<CompletableFuture<AudioTrack>> load(List<QueuedTrack> entries, DownloadPriority priority) {
+        List<SpotifyTrackInfo> infos = new ArrayList<>();
+        for (QueuedTrack entry : entries) {
+            infos.add(entry.getSpotifyInfo());
+        }
+
+        List<CompletableFuture<AudioTrack>> futures = trackLoader != null
+            ? trackLoader.load(infos, priority)
+            : Collections.nCopies(entries.size(), CompletableFuture.completedFuture(null));
+
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).setLoading(futures.get(i));
+        }
+        return futures;
+    }
+
+    /**
+     * Solta o áudio das entradas que ficaram longe do início (depois de um shuffle, por ex.).
+     */
+    private void releaseDistant() {
+        for (int i = lookahead; i < queue.size(); i++) {
+            queue.get(i).unload();
+        }
+    }
+
+    public boolean rewind() {
+        return ask(() -> {
+            if (history.isEmpty()) {
+                return false;
+            }
 
-        final int originalVolume = player.getVolume();
-        Timer timer = new Timer("FadeOutTimer", true);
+            AudioTrack previousTrack = history.pop();
+
+            cancelPreload();
+            stopOutgoing();
+            AudioPlayer player = getPlayer();
+            AudioTrack currentTrack = player.getPlayingTrack();
+            if (currentTrack != null) {
+                QueuedTrack entry = QueuedTrack.of(currentTrack.makeClone());
+                queue.addFirst(entry);
+                record(j -> j.enqueueFront(entry));
+            } else if (pendingStart != null) {
+                QueuedTrack entry = pendingStart;
+                queue.addFirst(entry);
+                record(j -> j.enqueueFront(entry));
+            }
 
-        timer.scheduleAtFixedRate(new TimerTask() {
-            int steps = 30;
-            int currentStep = 0;
+            pendingStart = null;
+            player.startTrack(previousTrack, false);
+            releaseDistant();
+            return true;
+        });
+    }
 
-            @Override
-            public void run() {
-                if (currentStep >= steps) {
-                    timer.cancel();
-                    player.setVolume(originalVolume);
-                    fadeStarted = false;
-                    return;
+    public void stop() {
+        post(() -> {
+            cancelPreload();
+            preloadChecked = null;
+            for (int i = 0; i < queue.size(); i++) {
+                queue.get(i).unload();
+            }
+            queue.clear();
+            record(QueueJournal::clear);
+            if (pendingStart != null) {
+                // cancela o download da que ia começar e solta o arquivo dela
+                pendingStart.unload();
+                pendingStart = null;
+            }
+            for (AudioPlayer deck : decks) {
+                deck.stopTrack();
+            }
+            history.clear();
+        });
+    }
+
+    /**
+     * Entradas que ainda vão tocar, incluindo a que está esperando o download para começar.
+     * O snapshot é somente leitura e não copia a fila; chamadas sem mudança no meio
+     * devolvem o mesmo objeto.
+     */
+    public TrackQueue.Snapshot getQueue() {
+        TrackQueue.Snapshot view = queueView;
+        if (view != null) {
+            return view;
+        }
+        return mailbox.call(() -> queueView = queue.snapshot(pendingStart));
+    }
+
+    public void shuffle() {
+        post(() -> {
+            cancelPreload();
+            queue.shuffle();
+            rewriteJournal();
+
+            releaseDistant();
+            prefetch();
+        });
+    }
+
+    @Override
+    public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+        if (player == getPlayer()
+            && (endReason == AudioTrackEndReason.REPLACED || endReason == AudioTrackEndReason.STOPPED)) {
+            // fora da caixa: o buffer para de tocar a música velha já
+            outputFlush.run();
+        }
+
+        post(() -> {
+            if (player != getPlayer()) {
+                if (track == discardedPreload) {
+                    discardedPreload = null;
+                } else if (preloaded != null && track == preloaded.getTrack()) {
+                    // o pré-carregamento falhou: a entrada volta a ser tocada do jeito normal
+                    preloaded.recycle();
+                    preloaded = null;
+                } else if (endReason != AudioTrackEndReason.CLEANUP && endReason != AudioTrackEndReason.LOAD_FAILED) {
+                    // música que estava saindo num crossfade: a próxima já está tocando no outro player
+                    addToHistory(track);
                 }
+                return;
+            }
 
-                float progress = (float) currentStep / steps;
-                int newVolume = (int) (originalVolume * (1.0f - (progress * 0.8f)));
-                player.setVolume(newVolume);
-                currentStep++;
+            if (endReason != AudioTrackEndReason.STOPPED && endReason != AudioTrackEndReason.CLEANUP) {
+                addToHistory(track);
             }
-        }, 0, FADE_DURATION / 30);
+
+            if (endReason.mayStartNext) {
+                startNext();
+            }
+        });
+    }
+
+    private void addToHistory(AudioTrack track) {
+        history.push(track.makeClone());
+    }
+
+    @Override
+    public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
+        post(() -> {
+            System.err.println("❌ erro ao tocar " + track.getInfo().title + ": " + exception.getMessage());
+
+            if (textChannel != null) {
+                textChannel.sendMessage("> ⚠ Playback of **" + track.getInfo().title + "** failed (the download may have been interrupted). Skipping.").queue();
+            }
+        });
+    }
+
+    @Override
+    public void onTrackStart(AudioPlayer player, AudioTrack track) {
+        // 100 quando o ganho já foi gravado no arquivo; outro valor só se a regravação falhou
+        player.setVolume(SpotifyDownloader.getInstance().getLoudnessAnalyzer().volumeFor(track.getIdentifier()));
+
+        post(() -> {
+            if (player != getPlayer()) {
+                // pré-carregamento: anunciado quando o player trocar
+                return;
+            }
+            announce(track);
+        });
+    }
+
+    private void announce(AudioTrack track) {
+        lastCheckpoint = -1;
+        record(j -> j.current(QueueJournal.infoOf(track)));
+        prefetch();
+
+        ScheduledFuture<?> previous = nowPlayingMessage;
+        if (previous != null) {
+            // skips em sequência: só a música que ficou tocando é anunciada
+            previous.cancel(false);
+        }
+
+        if (textChannel != null) {
+            nowPlayingMessage = TimerService.getInstance().schedule("now-playing", () -> {
+                String artist = track.getInfo().author;
+                String title = track.getInfo().title;
+                textChannel.sendMessage("> ▶ **" + artist + " - " + title + "**").queue();
+            }, NOW_PLAYING_DELAY_MS);
+        }
+    }
+
+    /**
+     * Quantas entradas esperam na fila (sem a pendente), segundo a última tarefa da caixa.
+     * Para checagens que não precisam de um snapshot.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sem nada tocando, esperando download ou na fila, segundo a última tarefa da caixa.
+     * Não espera pela caixa.
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Libera a guild: esvazia a fila (cancelando os downloads preguiçosos), cancela as
+     * tarefas agendadas e apaga o diário. Os players são destruídos pelo {@link GuildMusicManager}.
+     */
+    public void close() {
+        ScheduledFuture<?> checkpoints = checkpointTask;
+        if (checkpoints != null) {
+            checkpoints.cancel(false);
+        }
+
+        post(() -> {
+            cancelPreload();
+            for (int i = 0; i < queue.size(); i++) {
+                queue.get(i).unload();
+            }
+            queue.clear();
+            if (pendingStart != null) {
+                pendingStart.unload();
+                pendingStart = null;
+            }
+            history.clear();
+
+            if (nowPlayingMessage != null) {
+                nowPlayingMessage.cancel(false);
+                nowPlayingMessage = null;
+            }
+            if (journal != null) {
+                journal.discard();
+                journal = null;
+            }
+        });
+    }
+
+    /**
+     * Grava no diário a posição da música atual (de tempos em tempos, pelo TimerService).
+     */
+    private void checkpoint() {
+        AudioTrack playing = getPlayer().getPlayingTrack();
+        if (playing == null || getPlayer().isPaused() || pendingStart != null) {
+            return;
+        }
+
+        long position = playing.getPosition();
+        if (position != lastCheckpoint) {
+            lastCheckpoint = position;
+            record(j -> j.position(position));
+        }
+    }
+
+    /**
+     * Escreve um registro no diário; se ele não couber, o diário é compactado com o estado
+     * atual (que já inclui a mudança).
+     */
+    private void record(Predicate<QueueJournal> write) {
+        if (journal != null && !write.test(journal)) {
+            rewriteJournal();
+        }
+    }
+
+    private void rewriteJournal() {
+        if (journal == null) {
+            return;
+        }
+
+        AudioTrack playing = getPlayer().getPlayingTrack();
+        SpotifyTrackInfo current = pendingStart != null
+            ? QueueJournal.infoOf(pendingStart)
+            : QueueJournal.infoOf(playing);
+        journal.rewrite(voiceChannelId, textChannelId(), current,
+            pendingStart == null && playing != null ? playing.getPosition() : 0, queue);
+    }
+
+    private long textChannelId() {
+        return textChannel != null ? textChannel.getIdLong() : 0;
     }
 }
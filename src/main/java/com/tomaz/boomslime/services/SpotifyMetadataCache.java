@@ -0,0 +1,302 @@
+package com.tomaz.boomslime.services;
+
+import com.tomaz.boomslime.util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache de metadados do Spotify (playlists, albums, artistas e tracks). Fica em memória
+ * com LRU limitado pelo total de tracks; o que sai da memória é gravado em disco e volta
+ * de lá num próximo acesso. Playlists guardam o snapshot_id como versão, para validar o
+ * cache com uma única chamada barata à API.
+ * <p>
+ * O monitor só protege o mapa em memória: leitura, gravação e limpeza do disco acontecem
+ * fora dele. Entradas de uma única track ({@code track:<id>}) ficam só em memória, para não
+ * virar um arquivo por track.
+ */
+public class SpotifyMetadataCache {
+    private static final int DISK_PRUNE_EVERY = 100;
+    private static final String TRACK_PREFIX = "track:";
+
+    private final Path dir;
+    private final long ttlMs;
+    private final long maxTracksInMemory;
+    private final int maxDiskEntries;
+    private final LinkedHashMap<String, CachedTracks> memory;
+    private final AtomicInteger spills = new AtomicInteger();
+    private long tracksInMemory = 0;
+
+    private SpotifyMetadataCache(Path dir, long ttlMs, long maxTracksInMemory, int maxDiskEntries) {
+        this.dir = dir;
+        this.ttlMs = ttlMs;
+        this.maxTracksInMemory = maxTracksInMemory;
+        this.maxDiskEntries = maxDiskEntries;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Cria o cache, registra a métrica de tracks em memória e grava tudo no disco no desligamento.
+     */
+    public static SpotifyMetadataCache open(Path dir, long ttlMs, long maxTracksInMemory, int maxDiskEntries) {
+        SpotifyMetadataCache cache = new SpotifyMetadataCache(dir, ttlMs, maxTracksInMemory, maxDiskEntries);
+
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.err.println("erro ao criar diretorio do cache de metadados: " + e.getMessage());
+        }
+
+        Metrics.getInstance().gauge("spotify.cache.memory_tracks", cache::getTracksInMemory);
+        Runtime.getRuntime().addShutdownHook(new Thread(cache::flush, "MetadataCacheShutdown"));
+        return cache;
+    }
+
+    /**
+     * @return a entrada, ou null se não existir ou tiver passado do TTL
+     */
+    public CachedTracks get(String key) {
+        CachedTracks entry;
+        synchronized (this) {
+            entry = memory.get(key);
+        }
+
+        List<Map.Entry<String, CachedTracks>> evicted = List.of();
+        if (entry == null && spillable(key)) {
+            entry = readDisk(key);
+            if (entry != null) {
+                Metrics.getInstance().counter("spotify.cache.disk_hit").increment();
+                synchronized (this) {
+                    if (!memory.containsKey(key)) {
+                        evicted = putMemory(key, entry);
+                    }
+                }
+            }
+        }
+        spill(evicted);
+
+        if (entry != null && System.currentTimeMillis() - entry.getFetchedAt() > ttlMs) {
+            remove(key);
+            entry = null;
+        }
+
+        Metrics.getInstance().counter(entry != null ? "spotify.cache.hit" : "spotify.cache.miss").increment();
+        return entry;
+    }
+
+    public void put(String key, String version, List<SpotifyTrackInfo> tracks) {
+        CachedTracks entry = new CachedTracks(version, System.currentTimeMillis(), new ArrayList<>(tracks));
+        List<Map.Entry<String, CachedTracks>> evicted;
+        synchronized (this) {
+            evicted = putMemory(key, entry);
+        }
+        spill(evicted);
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            CachedTracks removed = memory.remove(key);
+            if (removed != null) {
+                tracksInMemory -= removed.getTracks().size();
+            }
+        }
+
+        if (spillable(key)) {
+            try {
+                Files.deleteIfExists(fileFor(key));
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Grava tudo que está em memória no disco (no desligamento do bot).
+     */
+    public void flush() {
+        Map<String, CachedTracks> entries;
+        synchronized (this) {
+            entries = new HashMap<>(memory);
+        }
+        for (Map.Entry<String, CachedTracks> entry : entries.entrySet()) {
+            if (spillable(entry.getKey())) {
+                writeDisk(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private synchronized long getTracksInMemory() {
+        return tracksInMemory;
+    }
+
+    /**
+     * Chamado com o monitor. Devolve as entradas que saíram da memória, para o chamador
+     * gravar no disco depois de soltar o monitor.
+     */
+    private List<Map.Entry<String, CachedTracks>> putMemory(String key, CachedTracks entry) {
+        CachedTracks previous = memory.put(key, entry);
+        if (previous != null) {
+            tracksInMemory -= previous.getTracks().size();
+        }
+        tracksInMemory += entry.getTracks().size();
+
+        List<Map.Entry<String, CachedTracks>> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, CachedTracks>> it = memory.entrySet().iterator();
+        while (tracksInMemory > maxTracksInMemory && memory.size() > 1 && it.hasNext()) {
+            Map.Entry<String, CachedTracks> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            it.remove();
+            tracksInMemory -= eldest.getValue().getTracks().size();
+            if (spillable(eldest.getKey())) {
+                evicted.add(Map.entry(eldest.getKey(), eldest.getValue()));
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Grava no disco as entradas que saíram da memória e, a cada {@code DISK_PRUNE_EVERY}
+     * gravações, limpa o diretório. Roda sem o monitor.
+     */
+    private void spill(List<Map.Entry<String, CachedTracks>> evicted) {
+        for (Map.Entry<String, CachedTracks> entry : evicted) {
+            writeDisk(entry.getKey(), entry.getValue());
+            if (spills.incrementAndGet() % DISK_PRUNE_EVERY == 0) {
+                pruneDisk();
+            }
+        }
+    }
+
+    private static boolean spillable(String key) {
+        return !key.startsWith(TRACK_PREFIX);
+    }
+
+    private Path fileFor(String key) {
+        return dir.resolve(key.replaceAll("[^a-zA-Z0-9_-]", "_") + ".tsv");
+    }
+
+    private void writeDisk(String key, CachedTracks entry) {
+        Path file = fileFor(key);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write((entry.getVersion() != null ? entry.getVersion() : "") + "\t" + entry.getFetchedAt());
+            writer.newLine();
+            for (SpotifyTrackInfo track : entry.getTracks()) {
+                writer.write(String.join("\t",
+                    track.getId(),
+                    clean(track.getTitle()),
+                    clean(track.getArtists()),
+                    String.valueOf(track.getDurationMs()),
+                    track.getIsrc() != null ? track.getIsrc() : ""));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("erro ao gravar cache de metadados " + key + ": " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("erro ao gravar cache de metadados " + key + ": " + e.getMessage());
+        }
+    }
+
+    private CachedTracks readDisk(String key) {
+        Path file = fileFor(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String[] header = reader.readLine().split("\t", -1);
+            String version = header[0].isEmpty() ? null : header[0];
+            long fetchedAt = Long.parseLong(header[1]);
+
+            List<SpotifyTrackInfo> tracks = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length < 5) continue;
+                tracks.add(new SpotifyTrackInfo(parts[0], parts[1], parts[2], Long.parseLong(parts[3]),
+                    parts[4].isEmpty() ? null : parts[4]));
+            }
+            return new CachedTracks(version, fetchedAt, tracks);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("cache de metadados corrompido, descartando " + key + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    /**
+     * Mantém no disco só as {@code maxDiskEntries} entradas mais recentes.
+     */
+    private void pruneDisk() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.tsv")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        if (files.size() <= maxDiskEntries) {
+            return;
+        }
+
+        files.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+        for (Path file : files.subList(0, files.size() - maxDiskEntries)) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    public static class CachedTracks {
+        private final String version;
+        private final long fetchedAt;
+        private final List<SpotifyTrackInfo> tracks;
+
+        CachedTracks(String version, long fetchedAt, List<SpotifyTrackInfo> tracks) {
+            this.version = version;
+            this.fetchedAt = fetchedAt;
+            this.tracks = Collections.unmodifiableList(tracks);
+        }
+
+        /** snapshot_id da playlist (null para albums, artistas e tracks). */
+        public String getVersion() {
+            return version;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        public List<SpotifyTrackInfo> getTracks() {
+            return tracks;
+        }
+    }
+}
@@ -1,17 +1,35 @@
 package com.tomaz.boomslime.services;
 
+import com.neovisionaries.i18n.CountryCode;
 import com.tomaz.boomslime.config.BotConfig;
+import com.tomaz.boomslime.util.Metrics;
+import com.tomaz.boomslime.util.RateLimiter;
+import com.tomaz.boomslime.util.TimerService;
 import org.apache.hc.core5.http.ParseException;
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
 import se.michaelthelin.spotify.model_objects.credentials.ClientCredentials;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
 import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import se.michaelthelin.spotify.requests.IRequest;
 import se.michaelthelin.spotify.requests.authorization.client_credentials.ClientCredentialsRequest;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,21 +39,55 @@ import java.util.regex.Pattern;
 public class SpotifyService {
     private static SpotifyService INSTANCE;
     private final SpotifyApi spotifyApi;
-    private long tokenExpirationTime = 0;
+    private volatile long tokenExpirationTime = 0;
+    private volatile long throttledUntil = 0;
+    private volatile ScheduledFuture<?> tokenRefresh;
+    private final RateLimiter apiLimiter;
+    private final ExecutorService pageFetcher;
+    private final SpotifyMetadataCache metadataCache;
+
+    private static final int PLAYLIST_PAGE_SIZE = 100;
+    private static final int SEVERAL_TRACKS_LIMIT = 50;
+    private static final int MAX_API_ATTEMPTS = 4;
+    private static final long TOKEN_REFRESH_MARGIN_MS = 5 * 60 * 1000;
+    private static final long TOKEN_RETRY_DELAY_MS = 30000;
 
     private static final Pattern SPOTIFY_TRACK_PATTERN = Pattern.compile("^https://open\\.spotify\\.com/(?:intl-[a-z]{2}/)?track/([a-zA-Z0-9]+)");
     private static final Pattern SPOTIFY_PLAYLIST_PATTERN = Pattern.compile("^https://open\\.spotify\\.com/(?:intl-[a-z]{2}/)?playlist/([a-zA-Z0-9]+)");
     private static final Pattern SPOTIFY_ALBUM_PATTERN = Pattern.compile("^https://open\\.spotify\\.com/(?:intl-[a-z]{2}/)?album/([a-zA-Z0-9]+)");
+    private static final Pattern SPOTIFY_ARTIST_PATTERN = Pattern.compile("^https://open\\.spotify\\.com/(?:intl-[a-z]{2}/)?artist/([a-zA-Z0-9]+)");
     private static final Pattern SPOTIFY_TRACK_URI_PATTERN = Pattern.compile("^spotify:track:([a-zA-Z0-9]+)");
 
     private SpotifyService() {
-        String clientId = BotConfig.get("SPOTIFY_CLIENT_ID");
-        String clientSecret = BotConfig.get("SPOTIFY_CLIENT_SECRET");
+        this(new SpotifyApi.Builder()
+                .setClientId(BotConfig.get("SPOTIFY_CLIENT_ID"))
+                .setClientSecret(BotConfig.get("SPOTIFY_CLIENT_SECRET"))
+                .build(),
+            BotConfig.getDataDir());
+    }
+
+    /**
+     * @param spotifyApi cliente da API (nos testes, com um IHttpManager falso)
+     */
+    SpotifyService(SpotifyApi spotifyApi, Path dataDir) {
+        this.spotifyApi = spotifyApi;
+
+        this.pageFetcher = Executors.newFixedThreadPool(
+            Integer.parseInt(BotConfig.get("PLAYLIST_PAGE_CONCURRENCY", "4")), r -> {
+                Thread t = new Thread(r, "SpotifyPageFetcher");
+                t.setDaemon(true);
+                return t;
+            });
 
-        this.spotifyApi = new SpotifyApi.Builder()
-                .setClientId(clientId)
-                .setClientSecret(clientSecret)
-                .build();
+        this.metadataCache = SpotifyMetadataCache.open(
+            dataDir.resolve("metadata-cache"),
+            TimeUnit.HOURS.toMillis(Long.parseLong(BotConfig.get("METADATA_CACHE_TTL_HOURS", "24"))),
+            Long.parseLong(BotConfig.get("METADATA_CACHE_MAX_TRACKS", "50000")),
+            Integer.parseInt(BotConfig.get("METADATA_CACHE_DISK_ENTRIES", "5000")));
+
+        this.apiLimiter = new RateLimiter(
+            Double.parseDouble(BotConfig.get("SPOTIFY_REQUESTS_PER_SECOND", "10")),
+            Integer.parseInt(BotConfig.get("SPOTIFY_REQUESTS_BURST", "20")));
 
         authenticate();
         System.out.println("SpotifyService inicializado com API");
@@ -48,26 +100,131 @@ public class SpotifyService {
         return INSTANCE;
     }
 
-    private void authenticate() {
+    /**
+     * Renova o token. Sincronizado para que várias threads vendo o token vencido
+     * resultem numa única renovação.
+     */
+    private synchronized boolean authenticate() {
         try {
             ClientCredentialsRequest request = spotifyApi.clientCredentials().build();
             ClientCredentials credentials = request.execute();
 
             spotifyApi.setAccessToken(credentials.getAccessToken());
-            tokenExpirationTime = System.currentTimeMillis() + (credentials.getExpiresIn() * 1000);
+            // escrita volatile depois do token: quem le tokenExpirationTime enxerga o token novo
+            tokenExpirationTime = System.currentTimeMillis() + (credentials.getExpiresIn() * 1000L);
+            Metrics.getInstance().counter("spotify.token_refreshes").increment();
 
             System.out.println("✓ Autenticado com Spotify API");
+            scheduleTokenRefresh(Math.max(TOKEN_RETRY_DELAY_MS, credentials.getExpiresIn() * 1000L - TOKEN_REFRESH_MARGIN_MS));
+            return true;
         } catch (IOException | SpotifyWebApiException | ParseException e) {
             System.err.println("❌ Erro ao autenticar com Spotify: " + e.getMessage());
+            scheduleTokenRefresh(TOKEN_RETRY_DELAY_MS);
+            return false;
         }
     }
 
-    private void checkTokenExpiration() {
-        if (System.currentTimeMillis() >= tokenExpirationTime - 60000) {
+    /**
+     * Agenda a próxima renovação em segundo plano, antes do token vencer, para que
+     * nenhuma chamada à API precise esperar pela autenticação.
+     */
+    private void scheduleTokenRefresh(long delayMs) {
+        ScheduledFuture<?> previous = tokenRefresh;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        tokenRefresh = TimerService.getInstance().schedule("spotify-token", this::refreshInBackground, delayMs);
+    }
+
+    /**
+     * A renovação é uma chamada HTTP: roda numa thread própria para não segurar o TimerService.
+     */
+    private void refreshInBackground() {
+        Thread.ofPlatform().daemon().name("SpotifyTokenRefresh").start(this::authenticate);
+    }
+
+    /**
+     * Renova depois de um 401, só se o token recusado ainda for o atual: com várias threads
+     * recebendo 401 ao mesmo tempo, a primeira renova e as outras reaproveitam o token novo.
+     */
+    private synchronized void refreshRejectedToken(String rejectedToken) {
+        if (Objects.equals(spotifyApi.getAccessToken(), rejectedToken)) {
             authenticate();
         }
     }
 
+    /**
+     * Rede de segurança caso a renovação em segundo plano tenha falhado:
+     * renova na hora, uma única vez mesmo com várias threads chamando.
+     */
+    private void checkTokenExpiration() {
+        if (System.currentTimeMillis() < tokenExpirationTime - 60000) {
+            return;
+        }
+
+        synchronized (this) {
+            if (System.currentTimeMillis() >= tokenExpirationTime - 60000) {
+                authenticate();
+            }
+        }
+    }
+
+    /**
+     * Executa uma chamada à API passando pelo limitador global. Em 429 espera o
+     * Retry-After (pausando todas as threads) e tenta de novo; em 401 renova o token.
+     * A requisição é montada de novo a cada tentativa para usar o token atual.
+     */
+    private <T> T call(Supplier<IRequest<T>> request) throws IOException, SpotifyWebApiException, ParseException {
+        Metrics metrics = Metrics.getInstance();
+
+        for (int attempt = 1; ; attempt++) {
+            checkTokenExpiration();
+
+            try {
+                waitForThrottle();
+                long waited = apiLimiter.acquire();
+                if (waited > 0) {
+                    metrics.timer("spotify.limiter_wait").record(waited);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("chamada ao Spotify interrompida");
+            }
+
+            metrics.counter("spotify.requests").increment();
+            String token = spotifyApi.getAccessToken();
+            try {
+                return request.get().execute();
+            } catch (TooManyRequestsException e) {
+                metrics.counter("spotify.throttled").increment();
+                if (attempt >= MAX_API_ATTEMPTS) {
+                    throw e;
+                }
+
+                long retryAfterMs = TimeUnit.SECONDS.toMillis(Math.max(1, e.getRetryAfter()));
+                throttledUntil = Math.max(throttledUntil, System.currentTimeMillis() + retryAfterMs);
+                metrics.timer("spotify.throttle_wait").record(retryAfterMs);
+                System.err.println("⏳ Spotify limitou as requisicoes (429), aguardando " + retryAfterMs + "ms");
+            } catch (UnauthorizedException e) {
+                if (attempt >= MAX_API_ATTEMPTS) {
+                    throw e;
+                }
+                System.err.println("token do Spotify recusado, renovando");
+                refreshRejectedToken(token);
+            }
+        }
+    }
+
+    /**
+     * Depois de um 429, todas as threads esperam o Retry-After antes da próxima chamada.
+     */
+    private void waitForThrottle() throws InterruptedException {
+        long wait = throttledUntil - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
     /**
      * Verifica se uma URL é do Spotify (track, playlist ou album).
      */
@@ -75,6 +232,7 @@ public class SpotifyService {
         return SPOTIFY_TRACK_PATTERN.matcher(url).find()
             || SPOTIFY_PLAYLIST_PATTERN.matcher(url).find()
             || SPOTIFY_ALBUM_PATTERN.matcher(url).find()
+            || SPOTIFY_ARTIST_PATTERN.matcher(url).find()
             || SPOTIFY_TRACK_URI_PATTERN.matcher(url).find();
     }
 
@@ -85,6 +243,26 @@ public class SpotifyService {
         return SPOTIFY_PLAYLIST_PATTERN.matcher(url).find();
     }
 
+    /**
+     * Verifica se é uma lista de tracks (playlist, album ou top tracks de um artista)
+     */
+    public boolean isCollection(String url) {
+        return isPlaylist(url)
+            || SPOTIFY_ALBUM_PATTERN.matcher(url).find()
+            || SPOTIFY_ARTIST_PATTERN.matcher(url).find();
+    }
+
+    /**
+     * Extrai o ID de acordo com o padrão (playlist, album, artista)
+     */
+    private String extractId(Pattern pattern, String url) {
+        Matcher matcher = pattern.matcher(url);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
     /**
      * Extrai o ID da playlist
      */
@@ -96,50 +274,294 @@ public class SpotifyService {
         return null;
     }
 
+    /**
+     * Extrai o ID de uma track (URL ou URI)
+     */
+    private String extractTrackId(String url) {
+        Matcher matcher = SPOTIFY_TRACK_PATTERN.matcher(url);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        matcher = SPOTIFY_TRACK_URI_PATTERN.matcher(url);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+    /**
+     * Busca título, artistas e duração de uma track
+     * @return null se a track não existir ou a API falhar
+     */
+    public SpotifyTrackInfo getTrackInfo(String trackUrl) {
+        checkTokenExpiration();
+
+        String trackId = extractTrackId(trackUrl);
+        if (trackId == null) {
+            return null;
+        }
+
+        SpotifyMetadataCache.CachedTracks cached = metadataCache.get("track:" + trackId);
+        if (cached != null && !cached.getTracks().isEmpty()) {
+            return cached.getTracks().get(0);
+        }
+
+        try {
+            SpotifyTrackInfo track = SpotifyTrackInfo.from(call(() -> spotifyApi.getTrack(trackId).build()));
+            metadataCache.put("track:" + trackId, null, List.of(track));
+            return track;
+        } catch (IOException | SpotifyWebApiException | ParseException e) {
+            System.err.println("❌ Erro ao buscar track " + trackId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Recebe as tracks de uma playlist conforme as páginas chegam da API.
+     */
+    public interface PlaylistListener {
+        /** Chamado uma vez, com o total informado pela primeira página. */
+        default void onTotal(int total) {}
+
+        /** Chamado para cada página, na ordem da playlist. */
+        void onTracks(List<SpotifyTrackInfo> tracks);
+    }
+
     /**
      * Busca todas as músicas de uma playlist NA ORDEM
      * @return Lista de URLs das tracks
      */
     public List<String> getPlaylistTracks(String playlistUrl) {
-        checkTokenExpiration();
         List<String> trackUrls = new ArrayList<>();
+        streamPlaylistTracks(playlistUrl, tracks -> {
+            for (SpotifyTrackInfo track : tracks) {
+                trackUrls.add(track.getUrl());
+            }
+        });
+        return trackUrls;
+    }
+
+    /**
+     * Busca as músicas de uma playlist entregando cada página assim que possível: a primeira
+     * vai direto para o listener e, com o total em mãos, as páginas restantes são buscadas em
+     * paralelo e entregues na ordem. Bloqueia a thread atual até a última página.
+     * @return false se a playlist não pôde ser lida (inválida, privada ou erro na API)
+     */
+    public boolean streamPlaylistTracks(String playlistUrl, PlaylistListener listener) {
+        checkTokenExpiration();
+
+        String playlistId = extractPlaylistId(playlistUrl);
+        if (playlistId == null) {
+            System.err.println("❌ ID da playlist inválido");
+            return false;
+        }
+
+        System.out.println("📋 Buscando playlist: " + playlistId);
+        List<Future<Paging<PlaylistTrack>>> pages = new ArrayList<>();
+        String cacheKey = "playlist:" + playlistId;
 
         try {
-            String playlistId = extractPlaylistId(playlistUrl);
-            if (playlistId == null) {
-                System.err.println("❌ ID da playlist inválido");
-                return trackUrls;
+            // snapshot_id muda a cada edicao da playlist: se bater com o do cache, nao precisa paginar
+            String snapshotId = call(() -> spotifyApi.getPlaylist(playlistId).fields("snapshot_id").build()).getSnapshotId();
+            SpotifyMetadataCache.CachedTracks cached = metadataCache.get(cacheKey);
+            if (cached != null && snapshotId != null && snapshotId.equals(cached.getVersion())) {
+                System.out.println("✓ Playlist " + playlistId + " sem alteracoes, usando cache (" + cached.getTracks().size() + " músicas)");
+                deliverCached(cached, listener);
+                return true;
+            }
+
+            List<SpotifyTrackInfo> collected = new ArrayList<>();
+            Paging<PlaylistTrack> first = fetchPlaylistPage(playlistId, 0);
+            int total = first.getTotal() != null ? first.getTotal() : 0;
+
+            listener.onTotal(total);
+            deliver(toTrackInfos(first), listener, collected);
+
+            for (int offset = PLAYLIST_PAGE_SIZE; offset < total; offset += PLAYLIST_PAGE_SIZE) {
+                final int pageOffset = offset;
+                pages.add(pageFetcher.submit(() -> fetchPlaylistPage(playlistId, pageOffset)));
+            }
+
+            for (Future<Paging<PlaylistTrack>> page : pages) {
+                deliver(toTrackInfos(page.get()), listener, collected);
             }
 
-            System.out.println("📋 Buscando playlist: " + playlistId);
+            if (snapshotId != null) {
+                metadataCache.put(cacheKey, snapshotId, collected);
+            }
+
+            System.out.println("✓ Playlist " + playlistId + " carregada (" + total + " músicas)");
+            return true;
+        } catch (InterruptedException e) {
+            System.out.println("⏹ Busca da playlist interrompida");
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("❌ Erro ao buscar página da playlist: " + e.getCause().getMessage());
+            return false;
+        } catch (IOException | SpotifyWebApiException | ParseException e) {
+            System.err.println("❌ Erro ao buscar playlist: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        } finally {
+            for (Future<Paging<PlaylistTrack>> page : pages) {
+                page.cancel(true);
+            }
+        }
+    }
+
+    private void deliver(List<SpotifyTrackInfo> tracks, PlaylistListener listener, List<SpotifyTrackInfo> collected) {
+        collected.addAll(tracks);
+        listener.onTracks(tracks);
+    }
+
+    private void deliverCached(SpotifyMetadataCache.CachedTracks cached, PlaylistListener listener) {
+        listener.onTotal(cached.getTracks().size());
+        listener.onTracks(cached.getTracks());
+    }
+
+    private Paging<PlaylistTrack> fetchPlaylistPage(String playlistId, int offset)
+            throws IOException, SpotifyWebApiException, ParseException {
+        return call(() -> spotifyApi.getPlaylistsItems(playlistId)
+                .limit(PLAYLIST_PAGE_SIZE)
+                .offset(offset)
+                .build());
+    }
+
+    private List<SpotifyTrackInfo> toTrackInfos(Paging<PlaylistTrack> page) {
+        List<SpotifyTrackInfo> tracks = new ArrayList<>();
+        for (PlaylistTrack item : page.getItems()) {
+            if (item.getTrack() instanceof Track && item.getTrack().getId() != null) {
+                tracks.add(SpotifyTrackInfo.from((Track) item.getTrack()));
+            }
+        }
+        return tracks;
+    }
+
+    /**
+     * Expande playlist, album ou artista (top tracks) pelo mesmo listener, na ordem.
+     * @return false se o link não é uma coleção ou não pôde ser lido
+     */
+    public boolean streamCollectionTracks(String url, PlaylistListener listener) {
+        if (isPlaylist(url)) {
+            return streamPlaylistTracks(url, listener);
+        }
+
+        String albumId = extractId(SPOTIFY_ALBUM_PATTERN, url);
+        if (albumId != null) {
+            return streamAlbumTracks(albumId, listener);
+        }
 
+        String artistId = extractId(SPOTIFY_ARTIST_PATTERN, url);
+        if (artistId != null) {
+            return streamArtistTopTracks(artistId, listener);
+        }
+        return false;
+    }
+
+    /**
+     * Tracks de um album: cada página do album-tracks (50) vira uma única chamada ao
+     * several-tracks para trazer o ISRC, em vez de uma chamada por track.
+     */
+    private boolean streamAlbumTracks(String albumId, PlaylistListener listener) {
+        checkTokenExpiration();
+        System.out.println("💿 Buscando album: " + albumId);
+
+        String cacheKey = "album:" + albumId;
+        SpotifyMetadataCache.CachedTracks cached = metadataCache.get(cacheKey);
+        if (cached != null) {
+            deliverCached(cached, listener);
+            return true;
+        }
+
+        try {
+            List<SpotifyTrackInfo> collected = new ArrayList<>();
             int offset = 0;
-            Paging<PlaylistTrack> playlistTracks;
+            Paging<TrackSimplified> page;
+            boolean first = true;
 
             do {
-                playlistTracks = spotifyApi.getPlaylistsItems(playlistId)
-                        .limit(100)
-                        .offset(offset)
-                        .build()
-                        .execute();
-
-                for (PlaylistTrack item : playlistTracks.getItems()) {
-                    if (item.getTrack() != null && item.getTrack().getId() != null) {
-                        String trackUrl = "https://open.spotify.com/track/" + item.getTrack().getId();
-                        trackUrls.add(trackUrl);
+                final int pageOffset = offset;
+                page = call(() -> spotifyApi.getAlbumsTracks(albumId)
+                        .limit(SEVERAL_TRACKS_LIMIT)
+                        .offset(pageOffset)
+                        .build());
+
+                if (first) {
+                    listener.onTotal(page.getTotal() != null ? page.getTotal() : 0);
+                    first = false;
+                }
+
+                List<String> ids = new ArrayList<>();
+                for (TrackSimplified track : page.getItems()) {
+                    if (track.getId() != null) {
+                        ids.add(track.getId());
                     }
                 }
+                deliver(fetchSeveralTracks(ids), listener, collected);
+
+                offset += SEVERAL_TRACKS_LIMIT;
+            } while (page.getNext() != null && !Thread.currentThread().isInterrupted());
+
+            if (!Thread.currentThread().isInterrupted()) {
+                metadataCache.put(cacheKey, null, collected);
+            }
+            return true;
+        } catch (IOException | SpotifyWebApiException | ParseException e) {
+            System.err.println("❌ Erro ao buscar album: " + e.getMessage());
+            return false;
+        }
+    }
 
-                offset += 100;
-            } while (playlistTracks.getNext() != null);
+    /**
+     * Top tracks de um artista (já vêm completas, com ISRC, numa única chamada).
+     */
+    private boolean streamArtistTopTracks(String artistId, PlaylistListener listener) {
+        checkTokenExpiration();
+        System.out.println("🎤 Buscando top tracks do artista: " + artistId);
 
-            System.out.println("✓ Encontradas " + trackUrls.size() + " músicas na playlist");
+        String cacheKey = "artist:" + artistId;
+        SpotifyMetadataCache.CachedTracks cached = metadataCache.get(cacheKey);
+        if (cached != null) {
+            deliverCached(cached, listener);
+            return true;
+        }
 
+        try {
+            CountryCode configured = CountryCode.getByCode(BotConfig.get("SPOTIFY_MARKET", "US"));
+            CountryCode market = configured != null ? configured : CountryCode.US;
+            Track[] topTracks = call(() -> spotifyApi.getArtistsTopTracks(artistId, market).build());
+
+            List<SpotifyTrackInfo> tracks = new ArrayList<>();
+            for (Track track : topTracks) {
+                if (track != null && track.getId() != null) {
+                    tracks.add(SpotifyTrackInfo.from(track));
+                }
+            }
+
+            metadataCache.put(cacheKey, null, tracks);
+            listener.onTotal(tracks.size());
+            listener.onTracks(tracks);
+            return true;
         } catch (IOException | SpotifyWebApiException | ParseException e) {
-            System.err.println("❌ Erro ao buscar playlist: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("❌ Erro ao buscar artista: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private List<SpotifyTrackInfo> fetchSeveralTracks(List<String> ids)
+            throws IOException, SpotifyWebApiException, ParseException {
+        List<SpotifyTrackInfo> tracks = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return tracks;
         }
 
-        return trackUrls;
+        Track[] result = call(() -> spotifyApi.getSeveralTracks(ids.toArray(new String[0])).build());
+        for (Track track : result) {
+            if (track != null && track.getId() != null) {
+                tracks.add(SpotifyTrackInfo.from(track));
+            }
+        }
+        return tracks;
     }
 }
@@ -0,0 +1,74 @@
+package com.tomaz.boomslime.services;
+
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metadados de uma track do Spotify usados pelo bot (sem áudio).
+ */
+public class SpotifyTrackInfo {
+    private final String id;
+    private final String title;
+    private final String artists;
+    private final long durationMs;
+    private final String isrc;
+
+    public SpotifyTrackInfo(String id, String title, String artists, long durationMs, String isrc) {
+        this.id = id;
+        this.title = title;
+        this.artists = artists;
+        this.durationMs = durationMs;
+        this.isrc = isrc;
+    }
+
+    public static SpotifyTrackInfo from(Track track) {
+        String isrc = null;
+        if (track.getExternalIds() != null && track.getExternalIds().getExternalIds() != null) {
+            isrc = track.getExternalIds().getExternalIds().get("isrc");
+        }
+
+        return new SpotifyTrackInfo(
+            track.getId(),
+            track.getName(),
+            joinArtists(track.getArtists()),
+            track.getDurationMs() != null ? track.getDurationMs() : 0,
+            isrc);
+    }
+
+    static String joinArtists(ArtistSimplified[] artists) {
+        List<String> names = new ArrayList<>();
+        if (artists != null) {
+            for (ArtistSimplified artist : artists) {
+                names.add(artist.getName());
+            }
+        }
+        return String.join(", ", names);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtists() {
+        return artists;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public String getIsrc() {
+        return isrc;
+    }
+
+    public String getUrl() {
+        return "https://open.spotify.com/track/" + id;
+    }
+}
@@ -0,0 +1,103 @@
+package com.tomaz.boomslime.util;
+
+/**
+ * Circuit breaker simples: abre depois de {@code failureThreshold} falhas seguidas e
+ * recusa chamadas por {@code openMillis}. Depois disso deixa passar uma chamada de teste
+ * (meio-aberto); sucesso fecha o circuito, falha abre de novo.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean trialInFlight = false;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return false se o circuito está aberto (a chamada deve falhar na hora)
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                System.out.println("🔌 circuito " + name + " meio-aberto, testando uma chamada");
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            System.out.println("🔌 circuito " + name + " fechado novamente");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * @return true se esta falha abriu o circuito
+     */
+    public synchronized boolean recordFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            System.err.println("🔌 circuito " + name + " aberto apos " + consecutiveFailures + " falhas seguidas");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Libera a vaga de teste do estado meio-aberto sem contar sucesso nem falha
+     * (ex: a chamada foi cancelada ou falhou por um motivo que não diz nada sobre a saúde do serviço).
+     */
+    public synchronized void releaseTrial() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized boolean isOpen() {
+        return getState() == State.OPEN;
+    }
+
+    /**
+     * Quanto falta para o circuito aceitar a próxima chamada de teste.
+     */
+    public synchronized long remainingOpenMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openMillis - (System.currentTimeMillis() - openedAt));
+    }
+}
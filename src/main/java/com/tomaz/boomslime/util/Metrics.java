@@ -0,0 +1,126 @@
+package com.tomaz.boomslime.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro de métricas em memória (contadores, tempos e gauges), exibido pelo comando !stats.
+ * Os nomes seguem o formato "area.metrica", ex: "downloads.wait.now".
+ */
+public class Metrics {
+    private static Metrics INSTANCE;
+
+    private final Map<String, Counter> counters;
+    private final Map<String, Timer> timers;
+    private final Map<String, LongSupplier> gauges;
+
+    private Metrics() {
+        this.counters = new ConcurrentHashMap<>();
+        this.timers = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    public static synchronized Metrics getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new Metrics();
+        }
+        return INSTANCE;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Registra um valor lido na hora da consulta (tamanho de fila, estado, etc).
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Remove um gauge cujo dono foi liberado (ex.: o buffer de áudio de uma guild).
+     */
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Remove um contador cujo dono foi liberado.
+     */
+    public void removeCounter(String name) {
+        counters.remove(name);
+    }
+
+    /**
+     * Todas as métricas formatadas, ordenadas pelo nome.
+     */
+    public Map<String, String> snapshot() {
+        Map<String, String> values = new TreeMap<>();
+
+        counters.forEach((name, counter) -> values.put(name, String.valueOf(counter.get())));
+        timers.forEach((name, timer) -> values.put(name, timer.toString()));
+        gauges.forEach((name, gauge) -> {
+            try {
+                values.put(name, String.valueOf(gauge.getAsLong()));
+            } catch (RuntimeException e) {
+                values.put(name, "?");
+            }
+        });
+        return values;
+    }
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMs = new LongAdder();
+        private final AtomicLong maxMs = new AtomicLong();
+
+        public void record(long ms) {
+            count.increment();
+            totalMs.add(ms);
+            maxMs.accumulateAndGet(ms, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getAverageMs() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalMs.sum() / n;
+        }
+
+        public long getMaxMs() {
+            return maxMs.get();
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + getCount() + " avg=" + getAverageMs() + "ms max=" + getMaxMs() + "ms";
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.tomaz.boomslime.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Caixa de mensagens de um ator: as tarefas enviadas rodam uma de cada vez, na ordem de
+ * chegada, então o estado do dono só é tocado por uma thread por vez, sem locks.
+ * <p>
+ * Não há uma thread por caixa: quando chegam tarefas, uma virtual thread do executor
+ * compartilhado esvazia a caixa e termina. Caixas diferentes (guilds diferentes) rodam em
+ * paralelo em todos os núcleos.
+ */
+public class SerialExecutor implements Executor {
+    private static final ExecutorService SHARED = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("Mailbox-", 0).factory());
+
+    private final String name;
+    private final ConcurrentLinkedQueue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile Thread runner;
+
+    public SerialExecutor(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mailbox.offer(task);
+        if (scheduled.compareAndSet(false, true)) {
+            SHARED.execute(this::drain);
+        }
+    }
+
+    /**
+     * Roda a tarefa na caixa e espera o resultado. Chamado de dentro da própria caixa,
+     * roda direto (esperar por ela mesma travaria). Qualquer erro da tarefa, inclusive
+     * um {@link Error}, completa o resultado, para quem espera nunca ficar preso.
+     */
+    public <T> T call(Supplier<T> task) {
+        if (isCurrentThread()) {
+            return task.get();
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                result.complete(task.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.join();
+    }
+
+    public boolean isCurrentThread() {
+        return runner == Thread.currentThread();
+    }
+
+    private void drain() {
+        runner = Thread.currentThread();
+        try {
+            Runnable task;
+            while ((task = mailbox.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("erro na caixa " + name + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            runner = null;
+            scheduled.set(false);
+            // uma tarefa pode ter chegado entre o último poll e o set(false)
+            if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+                SHARED.execute(this::drain);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.tomaz.boomslime.util;
+
+import com.tomaz.boomslime.config.BotConfig;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agendador único do bot para todo trabalho atrasado ou periódico (mensagens, health
+ * checks, limpeza, renovação de token). Substitui um java.util.Timer (e uma thread) por
+ * uso: as tarefas dividem poucas threads e devolvem um {@link ScheduledFuture} para cancelar.
+ * As tarefas devem ser curtas; uma exceção é logada e não derruba as execuções periódicas.
+ */
+public class TimerService {
+    private static TimerService INSTANCE;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private TimerService() {
+        AtomicInteger threadIds = new AtomicInteger();
+        int threads = Math.max(1, Integer.parseInt(BotConfig.get("TIMER_THREADS", "2")));
+
+        this.executor = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "BotTimer-" + threadIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // tarefas canceladas saem da fila na hora, em vez de ficar até o horário delas
+        this.executor.setRemoveOnCancelPolicy(true);
+
+        Metrics.getInstance().gauge("timers.scheduled", () -> executor.getQueue().size());
+    }
+
+    public static synchronized TimerService getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new TimerService();
+        }
+        return INSTANCE;
+    }
+
+    public ScheduledFuture<?> schedule(String name, Runnable task, long delayMs) {
+        return executor.schedule(guard(name, task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(String name, Runnable task, long initialDelayMs, long periodMs) {
+        return executor.scheduleAtFixedRate(guard(name, task), initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    public ScheduledFuture<?> scheduleWithFixedDelay(String name, Runnable task, long initialDelayMs, long delayMs) {
+        return executor.scheduleWithFixedDelay(guard(name, task), initialDelayMs, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static Runnable guard(String name, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("erro na tarefa agendada " + name + ": " + e.getMessage());
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+#!/usr/bin/env python3
+"""
+Worker de longa duracao do spotdl, controlado pelo SpotdlWorkerPool via stdin/stdout.
+
+Protocolo (uma linha por mensagem, campos separados por TAB):
+  entrada: PING | QUIT | JOB <jobId> <output-template> <url> [<url> ...]
+  saida:   READY | PONG | RESULT <jobId> <trackId> <caminho ou vazio> | DONE <jobId> <ok|error> [mensagem]
+"""
+import os
+import sys
+import threading
+import traceback
+
+protocol = sys.stdout
+sys.stdout = sys.stderr
+lock = threading.Lock()
+
+
+def emit(*parts):
+    line = "\t".join(str(p).replace("\t", " ").replace("\n", " ") for p in parts)
+    with lock:
+        protocol.write(line + "\n")
+        protocol.flush()
+
+
+def create_client():
+    from spotdl import Spotdl
+
+    settings = {
+        "format": os.environ.get("SPOTDL_FORMAT", "mp3"),
+        "bitrate": os.environ.get("SPOTDL_BITRATE", "96k"),
+        "threads": int(os.environ.get("SPOTDL_THREADS", "8")),
+        "print_errors": True,
+        "simple_tui": True,
+        "log_level": "ERROR",
+    }
+
+    ffmpeg = os.environ.get("SPOTDL_FFMPEG")
+    if ffmpeg:
+        settings["ffmpeg"] = ffmpeg
+
+    ffmpeg_args = os.environ.get("SPOTDL_FFMPEG_ARGS")
+    if ffmpeg_args:
+        settings["ffmpeg_args"] = ffmpeg_args
+
+    return Spotdl(
+        client_id=os.environ.get("SPOTIFY_CLIENT_ID"),
+        client_secret=os.environ.get("SPOTIFY_CLIENT_SECRET"),
+        downloader_settings=settings,
+    )
+
+
+def run_job(client, job_id, template, urls):
+    try:
+        client.downloader.settings["output"] = template
+        songs = client.search(urls)
+
+        for song in songs:
+            path = None
+            try:
+                _, path = client.downloader.search_and_download(song)
+            except Exception:
+                traceback.print_exc()
+            emit("RESULT", job_id, song.song_id, path or "")
+
+        emit("DONE", job_id, "ok")
+    except Exception as e:
+        traceback.print_exc()
+        emit("DONE", job_id, "error", e)
+
+
+def main():
+    client = create_client()
+    emit("READY")
+
+    for raw in sys.stdin:
+        parts = raw.rstrip("\n").split("\t")
+        command = parts[0]
+
+        if command == "PING":
+            emit("PONG")
+        elif command == "QUIT":
+            break
+        elif command == "JOB" and len(parts) >= 4:
+            run_job(client, parts[1], parts[2], parts[3:])
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,113 @@
+package com.tomaz.boomslime.music;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Ordem de remoção (LRU e LFU) e tracks em uso que nunca saem do cache.
+ * Cada arquivo tem 100 bytes; t1 é o mais antigo e t4 o mais recente.
+ */
+class CachePolicyTest {
+    private static final int FILE_BYTES = 100;
+
+    @TempDir
+    Path musicDir;
+
+    private TrackCacheIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        index = new TrackCacheIndex(musicDir, musicDir.resolve("cache-index.tsv"), "mp3");
+        for (int i = 1; i <= 4; i++) {
+            Path file = musicDir.resolve("Artist - Song " + i + " [t" + i + "].mp3");
+            Files.write(file, new byte[FILE_BYTES]);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000L * i));
+            index.put(file);
+        }
+    }
+
+    @Test
+    void underBudgetRemovesNothing() {
+        new CachePolicy(index, 4 * FILE_BYTES, CachePolicy.Mode.LRU).enforceBudget();
+        assertEquals(Set.of("t1", "t2", "t3", "t4"), cached());
+    }
+
+    @Test
+    void lruRemovesTheLeastRecentlyPlayedDownToTheLowWatermark() {
+        // 400 > 350: desce até 315 (90%), uma track basta
+        new CachePolicy(index, 350, CachePolicy.Mode.LRU).enforceBudget();
+        assertEquals(Set.of("t2", "t3", "t4"), cached());
+    }
+
+    @Test
+    void lruSkipsPinnedTracks() {
+        index.recordAccess("t2");
+        CachePolicy policy = new CachePolicy(index, 350, CachePolicy.Mode.LRU);
+        policy.setPinnedTracks(() -> Set.of("t1"));
+
+        policy.enforceBudget();
+
+        // t2 foi tocada agora, então a próxima mais antiga é t3
+        assertEquals(Set.of("t1", "t2", "t4"), cached());
+    }
+
+    @Test
+    void lfuRemovesTheLeastPlayedAndBreaksTiesByAge() {
+        for (int i = 0; i < 3; i++) {
+            index.recordAccess("t1");
+        }
+        index.recordAccess("t2");
+
+        // 400 > 250: desce até 225, duas tracks; t3 e t4 nunca tocaram, t3 é mais antiga
+        new CachePolicy(index, 250, CachePolicy.Mode.LFU).enforceBudget();
+        assertEquals(Set.of("t1", "t2"), cached());
+    }
+
+    @Test
+    void lfuSkipsPinnedTracks() {
+        for (int i = 0; i < 3; i++) {
+            index.recordAccess("t1");
+        }
+        index.recordAccess("t2");
+        CachePolicy policy = new CachePolicy(index, 250, CachePolicy.Mode.LFU);
+        policy.setPinnedTracks(() -> Set.of("t4"));
+
+        policy.enforceBudget();
+
+        assertEquals(Set.of("t1", "t4"), cached());
+    }
+
+    @Test
+    void everythingPinnedStaysOverBudget() {
+        CachePolicy policy = new CachePolicy(index, 100, CachePolicy.Mode.LRU);
+        policy.setPinnedTracks(() -> Set.of("t1", "t2", "t3", "t4"));
+
+        policy.enforceBudget();
+
+        assertEquals(Set.of("t1", "t2", "t3", "t4"), cached());
+        assertEquals(4 * FILE_BYTES, index.totalBytes());
+    }
+
+    /**
+     * TrackIds no índice, conferindo que o índice e a pasta concordam.
+     */
+    private Set<String> cached() {
+        Set<String> indexed = index.entries().stream()
+            .map(TrackCacheIndex.CacheEntry::getTrackId)
+            .collect(Collectors.toSet());
+        for (String trackId : List.of("t1", "t2", "t3", "t4")) {
+            assertEquals(indexed.contains(trackId), index.lookupOrFind(trackId) != null, trackId);
+        }
+        return indexed;
+    }
+}
@@ -0,0 +1,119 @@
+package com.tomaz.boomslime.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ordem de execução com um único worker: a classe mais urgente primeiro, round-robin entre
+ * guilds dentro da classe, e a promoção de uma tarefa que ainda está na fila.
+ */
+class DownloadSchedulerTest {
+    private final List<String> order = new CopyOnWriteArrayList<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    void mostUrgentClassRunsFirst() throws Exception {
+        DownloadScheduler scheduler = blockedScheduler();
+
+        scheduler.submit(1, DownloadPriority.PREFETCH, task("prefetch"));
+        scheduler.submit(1, DownloadPriority.NEXT, task("next"));
+        DownloadScheduler.Ticket<String> last = scheduler.submit(2, DownloadPriority.NOW, task("now"));
+
+        release.countDown();
+        last.get(5, TimeUnit.SECONDS);
+        awaitRuns(3);
+        assertEquals(List.of("now", "next", "prefetch"), order);
+    }
+
+    @Test
+    void guildsTakeTurnsWithinAClass() throws Exception {
+        DownloadScheduler scheduler = blockedScheduler();
+
+        scheduler.submit(1, DownloadPriority.PREFETCH, task("a1"));
+        scheduler.submit(1, DownloadPriority.PREFETCH, task("a2"));
+        scheduler.submit(1, DownloadPriority.PREFETCH, task("a3"));
+        scheduler.submit(2, DownloadPriority.PREFETCH, task("b1"));
+
+        release.countDown();
+        awaitRuns(4);
+        assertEquals(List.of("a1", "b1", "a2", "a3"), order);
+    }
+
+    @Test
+    void promotionMovesTheTaskToTheNewLane() throws Exception {
+        DownloadScheduler scheduler = blockedScheduler();
+
+        scheduler.submit(1, DownloadPriority.PREFETCH, task("first"));
+        DownloadScheduler.Ticket<String> promoted = scheduler.submit(1, DownloadPriority.PREFETCH, task("promoted"));
+        assertEquals(2, scheduler.queuedCount(DownloadPriority.PREFETCH));
+
+        scheduler.promote(promoted, DownloadPriority.NOW);
+        assertEquals(DownloadPriority.NOW, promoted.getPriority());
+        assertEquals(1, scheduler.queuedCount(DownloadPriority.PREFETCH));
+        assertEquals(1, scheduler.queuedCount(DownloadPriority.NOW));
+
+        // rebaixar não faz nada
+        scheduler.promote(promoted, DownloadPriority.NEXT);
+        assertEquals(DownloadPriority.NOW, promoted.getPriority());
+        assertEquals(0, scheduler.queuedCount(DownloadPriority.NEXT));
+
+        release.countDown();
+        awaitRuns(2);
+        assertEquals(List.of("promoted", "first"), order);
+        assertEquals(0, scheduler.queuedCount(DownloadPriority.PREFETCH));
+        assertEquals(0, scheduler.queuedCount(DownloadPriority.NOW));
+    }
+
+    @Test
+    void cancelledTaskIsSkipped() throws Exception {
+        DownloadScheduler scheduler = blockedScheduler();
+
+        DownloadScheduler.Ticket<String> cancelled = scheduler.submit(1, DownloadPriority.NOW, task("cancelled"));
+        scheduler.submit(1, DownloadPriority.NEXT, task("kept"));
+        assertTrue(cancelled.cancel(false));
+
+        release.countDown();
+        awaitRuns(1);
+        Thread.sleep(50);
+        assertEquals(List.of("kept"), order);
+    }
+
+    /**
+     * Scheduler com um worker ocupado até {@code release}, para as tarefas seguintes
+     * ficarem na fila.
+     */
+    private DownloadScheduler blockedScheduler() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(1, false);
+        scheduler.submit(0, DownloadPriority.NOW, () -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return scheduler;
+    }
+
+    private Callable<String> task(String name) {
+        return () -> {
+            order.add(name);
+            return name;
+        };
+    }
+
+    private void awaitRuns(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (order.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, order.size());
+    }
+}
@@ -0,0 +1,90 @@
+package com.tomaz.boomslime.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Quem espera uma vaga é atendido pela prioridade e, na mesma prioridade, por chegada.
+ */
+class ProcessSlotsTest {
+
+    @Test
+    void waitersAreServedByPriorityThenArrival() throws Exception {
+        ProcessSlots slots = new ProcessSlots(1);
+        slots.acquire(DownloadPriority.NOW);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(waiter(slots, DownloadPriority.PREFETCH, "prefetch", order));
+        awaitWaiting(slots, 1);
+        threads.add(waiter(slots, DownloadPriority.NEXT, "next-1", order));
+        awaitWaiting(slots, 2);
+        threads.add(waiter(slots, DownloadPriority.NOW, "now", order));
+        awaitWaiting(slots, 3);
+        threads.add(waiter(slots, DownloadPriority.NEXT, "next-2", order));
+        awaitWaiting(slots, 4);
+
+        slots.release();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+
+        assertEquals(List.of("now", "next-1", "next-2", "prefetch"), order);
+        assertEquals(0, slots.waiting());
+    }
+
+    @Test
+    void interruptedWaiterLeavesTheLine() throws Exception {
+        ProcessSlots slots = new ProcessSlots(1);
+        slots.acquire(DownloadPriority.NOW);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        Thread interrupted = waiter(slots, DownloadPriority.NOW, "interrupted", order);
+        awaitWaiting(slots, 1);
+        Thread next = waiter(slots, DownloadPriority.PREFETCH, "prefetch", order);
+        awaitWaiting(slots, 2);
+
+        interrupted.interrupt();
+        interrupted.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(interrupted.isAlive());
+        assertEquals(1, slots.waiting());
+
+        slots.release();
+        next.join(TimeUnit.SECONDS.toMillis(5));
+        assertEquals(List.of("prefetch"), order);
+    }
+
+    /**
+     * Thread que pega uma vaga, anota o nome e devolve a vaga.
+     */
+    private static Thread waiter(ProcessSlots slots, DownloadPriority priority, String name, List<String> order) {
+        Thread thread = new Thread(() -> {
+            try {
+                slots.acquire(priority);
+            } catch (InterruptedException e) {
+                return;
+            }
+            order.add(name);
+            slots.release();
+        }, "waiter-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(ProcessSlots slots, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (slots.waiting() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(slots.waiting() >= count, "esperando " + count + " na fila");
+    }
+}
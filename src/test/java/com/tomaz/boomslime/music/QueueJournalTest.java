@@ -0,0 +1,224 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Formato binário do diário: o que é escrito volta igual no replay, e registros pela metade
+ * ou corrompidos encerram a leitura sem perder o que veio antes.
+ */
+class QueueJournalTest {
+    private static final int CAPACITY = 16 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayRebuildsTheState() {
+        Path file = dir.resolve("1.journal");
+        QueueJournal journal = QueueJournal.open(file, CAPACITY);
+        assertNotNull(journal);
+
+        assertTrue(journal.channels(111, 222));
+        assertTrue(journal.enqueueAll(List.of(entry("a"), entry("b"))));
+        assertTrue(journal.enqueue(entry("c")));
+        assertTrue(journal.enqueueFront(entry("z")));
+        assertTrue(journal.poll());
+        assertTrue(journal.current(info("z")));
+        assertTrue(journal.position(42_000));
+        journal.close();
+
+        QueueJournal.State state = QueueJournal.replay(file);
+        assertEquals(111, state.getVoiceChannelId());
+        assertEquals(222, state.getTextChannelId());
+        assertEquals("z", state.getCurrent().getId());
+        assertEquals(42_000, state.getPositionMs());
+        assertEquals(List.of("a", "b", "c"), ids(state));
+
+        SpotifyTrackInfo first = state.getQueue().get(0);
+        assertEquals("Title a", first.getTitle());
+        assertEquals("Artist a", first.getArtists());
+        assertEquals(180_000, first.getDurationMs());
+        assertNull(first.getIsrc());
+    }
+
+    @Test
+    void clearAndEmptyCurrentAreReplayed() {
+        Path file = dir.resolve("2.journal");
+        QueueJournal journal = QueueJournal.open(file, CAPACITY);
+
+        journal.channels(1, 2);
+        journal.enqueue(entry("a"));
+        journal.current(info("x"));
+        journal.position(5000);
+        journal.clear();
+        journal.enqueue(entry("b"));
+        journal.current(null);
+        journal.close();
+
+        QueueJournal.State state = QueueJournal.replay(file);
+        assertNull(state.getCurrent());
+        assertEquals(0, state.getPositionMs());
+        assertEquals(List.of("b"), ids(state));
+    }
+
+    @Test
+    void partialRecordEndsTheReplay() throws Exception {
+        Path file = dir.resolve("3.journal");
+        QueueJournal journal = QueueJournal.open(file, CAPACITY);
+        journal.channels(1, 2);
+        journal.enqueue(entry("a"));
+        journal.close();
+
+        // crash no meio da escrita: tipo e dados no lugar, tamanho ainda 0
+        byte[] bytes = Files.readAllBytes(file);
+        int end = endOfRecords(bytes);
+        ByteBuffer.wrap(bytes, end + 4, 64).put((byte) 2).put((byte) 1).putInt(3)
+            .put("bad".getBytes(StandardCharsets.UTF_8));
+        Files.write(file, bytes);
+
+        QueueJournal.State state = QueueJournal.replay(file);
+        assertEquals(1, state.getVoiceChannelId());
+        assertEquals(List.of("a"), ids(state));
+    }
+
+    @Test
+    void corruptRecordKeepsWhatCameBefore() throws Exception {
+        Path file = dir.resolve("4.journal");
+        QueueJournal journal = QueueJournal.open(file, CAPACITY);
+        journal.channels(1, 2);
+        journal.enqueue(entry("a"));
+        journal.enqueue(entry("b"));
+        journal.close();
+
+        // o tipo do último registro vira lixo
+        byte[] bytes = Files.readAllBytes(file);
+        int last = startOfLastRecord(bytes);
+        bytes[last + 4] = 99;
+        Files.write(file, bytes);
+        assertEquals(List.of("a"), ids(QueueJournal.replay(file)));
+
+        // tamanho maior que o que sobra do arquivo
+        ByteBuffer.wrap(bytes).putInt(last, bytes.length);
+        Files.write(file, bytes);
+        assertEquals(List.of("a"), ids(QueueJournal.replay(file)));
+
+        // texto maior que o próprio registro
+        bytes[last + 4] = 2;
+        ByteBuffer.wrap(bytes).putInt(last, 6).putInt(last + 6, 1_000_000);
+        Files.write(file, bytes);
+        assertEquals(List.of("a"), ids(QueueJournal.replay(file)));
+    }
+
+    @Test
+    void truncatedFileIsReplayedUpToTheLastCompleteRecord() throws Exception {
+        Path file = dir.resolve("5.journal");
+        QueueJournal journal = QueueJournal.open(file, CAPACITY);
+        journal.channels(1, 2);
+        journal.enqueue(entry("a"));
+        journal.enqueue(entry("b"));
+        journal.close();
+
+        byte[] bytes = Files.readAllBytes(file);
+        int last = startOfLastRecord(bytes);
+        Files.write(file, Arrays.copyOf(bytes, last + 10));
+
+        assertEquals(List.of("a"), ids(QueueJournal.replay(file)));
+    }
+
+    @Test
+    void rewriteCompactsAFullJournal() {
+        Path file = dir.resolve("6.journal");
+        QueueJournal journal = QueueJournal.open(file, 1024);
+
+        int written = 0;
+        while (journal.position(written)) {
+            written++;
+        }
+        assertTrue(written > 0);
+        assertFalse(journal.enqueue(entry("a")));
+
+        TrackQueue queue = new TrackQueue();
+        queue.addLast(entry("a"));
+        queue.addLast(entry("b"));
+        journal.rewrite(7, 8, info("now"), 1234, queue);
+        assertTrue(journal.poll());
+        journal.close();
+
+        QueueJournal.State state = QueueJournal.replay(file);
+        assertEquals(7, state.getVoiceChannelId());
+        assertEquals(8, state.getTextChannelId());
+        assertEquals("now", state.getCurrent().getId());
+        assertEquals(1234, state.getPositionMs());
+        assertEquals(List.of("b"), ids(state));
+    }
+
+    @Test
+    void reopeningStartsFromAnEmptyJournal() throws Exception {
+        Path file = dir.resolve("7.journal");
+        QueueJournal journal = QueueJournal.open(file, CAPACITY);
+        journal.channels(1, 2);
+        while (journal.enqueue(entry("old"))) {
+            // enche o arquivo inteiro
+        }
+        journal.close();
+
+        journal = QueueJournal.open(file, CAPACITY);
+        assertEquals(CAPACITY, Files.size(file));
+        QueueJournal.State state = QueueJournal.replay(file);
+        assertEquals(0, state.getVoiceChannelId());
+        assertTrue(state.getQueue().isEmpty());
+
+        journal.enqueue(entry("new"));
+        journal.close();
+        assertEquals(List.of("new"), ids(QueueJournal.replay(file)));
+    }
+
+    private static QueuedTrack entry(String id) {
+        return QueuedTrack.lazy(info(id));
+    }
+
+    private static SpotifyTrackInfo info(String id) {
+        return new SpotifyTrackInfo(id, "Title " + id, "Artist " + id, 180_000, null);
+    }
+
+    private static List<String> ids(QueueJournal.State state) {
+        return state.getQueue().stream().map(SpotifyTrackInfo::getId).toList();
+    }
+
+    private static int endOfRecords(byte[] bytes) {
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+        int position = 0;
+        int length;
+        while ((length = data.getInt(position)) > 0) {
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    private static int startOfLastRecord(byte[] bytes) {
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+        int position = 0;
+        int last = 0;
+        int length;
+        while ((length = data.getInt(position)) > 0) {
+            last = position;
+            position += 4 + length;
+        }
+        return last;
+    }
+}
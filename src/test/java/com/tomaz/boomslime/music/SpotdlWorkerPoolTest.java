@@ -0,0 +1,114 @@
+package com.tomaz.boomslime.music;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pool com um worker falso em sh que fala o mesmo protocolo do spotdl_worker.py.
+ */
+class SpotdlWorkerPoolTest {
+    /**
+     * Responde PING com PONG e, para cada URL de um JOB, um RESULT com o último pedaço da URL
+     * como trackId. URLs terminadas em "fail" voltam sem caminho; "hang" nunca termina o job.
+     */
+    private static final String STUB = """
+        echo READY
+        while IFS= read -r line; do
+          case "$line" in
+            PING) echo PONG ;;
+            JOB*)
+              id=$(printf '%s' "$line" | cut -f2)
+              urls=$(printf '%s' "$line" | cut -f4-)
+              hang=0
+              for url in $(printf '%s' "$urls" | tr '\\t' ' '); do
+                track=${url##*/}
+                case "$track" in
+                  hang) hang=1 ;;
+                  fail) printf 'RESULT\\t%s\\t%s\\t\\n' "$id" "$track" ;;
+                  *) printf 'RESULT\\t%s\\t%s\\t/tmp/%s.mp3\\n' "$id" "$track" "$track" ;;
+                esac
+              done
+              [ "$hang" = 0 ] && printf 'DONE\\t%s\\n' "$id"
+              ;;
+          esac
+        done
+        """;
+
+    private SpotdlWorkerPool pool;
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void deliversEachTrackOfTheJob() throws Exception {
+        pool = startPool(List.of("sh", "-c", STUB), 5000);
+        Map<String, String> results = new ConcurrentHashMap<>();
+
+        boolean healthy = pool.runJob(List.of("https://open.spotify.com/track/a1", "https://open.spotify.com/track/b2"),
+            "/tmp/{track-id}.{output-ext}", results::put, 5000);
+
+        assertTrue(healthy);
+        assertEquals(Map.of("a1", "/tmp/a1.mp3", "b2", "/tmp/b2.mp3"), results);
+    }
+
+    @Test
+    void failedTrackComesBackWithoutPath() throws Exception {
+        pool = startPool(List.of("sh", "-c", STUB), 5000);
+        Map<String, String> results = new ConcurrentHashMap<>();
+
+        boolean healthy = pool.runJob(List.of("https://open.spotify.com/track/ok", "https://open.spotify.com/track/fail"),
+            "/tmp/{track-id}.{output-ext}", (trackId, path) -> results.put(trackId, String.valueOf(path)), 5000);
+
+        assertTrue(healthy);
+        assertEquals(Map.of("ok", "/tmp/ok.mp3", "fail", "null"), results);
+    }
+
+    @Test
+    void jobTimeoutReplacesTheWorker() throws Exception {
+        pool = startPool(List.of("sh", "-c", STUB), 5000);
+
+        boolean healthy = pool.runJob(List.of("https://open.spotify.com/track/hang"), "/tmp/x", (t, p) -> { }, 300);
+        assertFalse(healthy);
+
+        // o substituto sobe e atende o próximo job
+        Map<String, String> results = new ConcurrentHashMap<>();
+        assertTrue(pool.runJob(List.of("https://open.spotify.com/track/c3"), "/tmp/x", results::put, 5000));
+        assertEquals("/tmp/c3.mp3", results.get("c3"));
+    }
+
+    @Test
+    void noLiveWorkerIsTransientInsteadOfWaitingForever() {
+        pool = new SpotdlWorkerPool(1, List.of("/nonexistent/spotdl-worker"), 200);
+        pool.start();
+
+        assertFalse(pool.isAvailable());
+        DownloadException error = assertThrows(DownloadException.class,
+            () -> pool.runJob(List.of("https://open.spotify.com/track/a1"), "/tmp/x", (t, p) -> { }, 1000));
+        assertEquals(DownloadException.Kind.TRANSIENT, error.getKind());
+    }
+
+    private static SpotdlWorkerPool startPool(List<String> command, long idleWaitMs) throws InterruptedException {
+        SpotdlWorkerPool pool = new SpotdlWorkerPool(1, command, idleWaitMs);
+        pool.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pool.isAvailable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(pool.isAvailable(), "worker falso não ficou pronto");
+        return pool;
+    }
+}
@@ -0,0 +1,96 @@
+package com.tomaz.boomslime.music;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reconciliação do índice com a pasta e a espera pelo arquivo de um download recém-terminado.
+ */
+class TrackCacheIndexTest {
+
+    @TempDir
+    Path musicDir;
+
+    @Test
+    void rebuildFollowsTheFolder() throws Exception {
+        TrackCacheIndex index = newIndex();
+        Path kept = write("Artist - Kept [k1].mp3", 10);
+        Path gone = write("Artist - Gone [g1].mp3", 10);
+        index.put(kept);
+        index.put(gone);
+        index.recordAccess("k1");
+
+        Files.delete(gone);
+        write("Artist - New [n1].mp3", 30);
+        write("notes.txt", 5);
+        Files.write(kept, new byte[20]);
+
+        index.rebuild();
+
+        assertEquals(2, index.size());
+        assertNull(index.lookup("g1"));
+        assertEquals(musicDir.resolve("Artist - New [n1].mp3"), index.lookup("n1"));
+        assertEquals(50, index.totalBytes());
+        // entrada conhecida mantém o histórico de uso
+        assertEquals(1, index.entries().stream().filter(e -> e.getTrackId().equals("k1")).findFirst().orElseThrow().getHits());
+        assertTrue(Files.exists(musicDir.resolve("cache-index.tsv")));
+    }
+
+    @Test
+    void preferredFormatWinsOverTheOldOne() throws Exception {
+        TrackCacheIndex index = newIndex();
+        Path opus = write("Artist - Song [s1].opus", 10);
+        Path mp3 = write("Artist - Song [s1].mp3", 10);
+
+        index.rebuild();
+        assertEquals(opus, index.lookup("s1"));
+
+        // o mp3 antigo reaparecendo no watcher não tira o opus do índice
+        index.put(mp3);
+        assertEquals(opus, index.lookup("s1"));
+    }
+
+    @Test
+    void lookupAfterDownloadWaitsForTheWatcher() throws Exception {
+        TrackCacheIndex index = newIndex();
+        Path file = write("Artist - Late [l1].opus", 10);
+
+        CompletableFuture<Path> lookup = CompletableFuture.supplyAsync(() -> index.lookupAfterDownload("l1"));
+        Thread.sleep(100);
+        // o que o watcher faria ao ver o arquivo
+        index.put(file);
+
+        assertEquals(file, lookup.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void missingFileIsDroppedOnLookup() throws Exception {
+        TrackCacheIndex index = newIndex();
+        Path file = write("Artist - Song [m1].opus", 10);
+        index.put(file);
+
+        Files.delete(file);
+
+        assertNull(index.lookup("m1"));
+        assertEquals(0, index.size());
+    }
+
+    private TrackCacheIndex newIndex() {
+        return new TrackCacheIndex(musicDir, musicDir.resolve("cache-index.tsv"), "opus");
+    }
+
+    private Path write(String name, int bytes) throws Exception {
+        Path file = musicDir.resolve(name);
+        Files.write(file, new byte[bytes]);
+        return file;
+    }
+}
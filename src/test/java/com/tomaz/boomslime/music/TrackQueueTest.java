@@ -0,0 +1,197 @@
+package com.tomaz.boomslime.music;
+
+import com.tomaz.boomslime.services.SpotifyTrackInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Contas de índice do array circular (inclusive com a fila dando a volta no array) e o
+ * copy-on-write dos snapshots.
+ */
+class TrackQueueTest {
+    private final Map<String, QueuedTrack> entries = new HashMap<>();
+
+    @Test
+    void insertsAtBothEndsAcrossTheEndOfTheArray() {
+        TrackQueue queue = new TrackQueue();
+        for (int i = 0; i < 16; i++) {
+            queue.addLast(entry("a" + i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertSame(entry("a" + i), queue.poll());
+        }
+
+        // o fim dá a volta no array e o começo anda para trás
+        queue.addLast(entry("b0"));
+        queue.addLast(entry("b1"));
+        queue.addFirst(entry("z0"));
+        queue.addFirst(entry("z1"));
+
+        assertEquals(List.of("z1", "z0", "a10", "a11", "a12", "a13", "a14", "a15", "b0", "b1"), ids(queue));
+        assertSame(entry("z1"), queue.peek());
+    }
+
+    @Test
+    void bulkInsertGrowsKeepingTheOrder() {
+        TrackQueue queue = new TrackQueue();
+        for (int i = 0; i < 12; i++) {
+            queue.addLast(entry("a" + i));
+        }
+        for (int i = 0; i < 8; i++) {
+            queue.poll();
+        }
+        queue.addFirst(entry("z"));
+
+        List<QueuedTrack> batch = new ArrayList<>();
+        List<String> expected = new ArrayList<>(List.of("z", "a8", "a9", "a10", "a11"));
+        for (int i = 0; i < 40; i++) {
+            batch.add(entry("b" + i));
+            expected.add("b" + i);
+        }
+        queue.addAll(batch);
+
+        assertEquals(expected, ids(queue));
+        assertEquals(45, queue.size());
+    }
+
+    @Test
+    void removeAtShiftsTheEntriesAfterIt() {
+        TrackQueue queue = wrapped();
+
+        assertSame(entry("c2"), queue.removeAt(2));
+        assertSame(entry("c0"), queue.removeAt(0));
+        assertSame(entry("c5"), queue.removeAt(queue.size() - 1));
+
+        assertEquals(List.of("c1", "c3", "c4"), ids(queue));
+        assertThrows(IndexOutOfBoundsException.class, () -> queue.removeAt(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> queue.removeAt(-1));
+    }
+
+    @Test
+    void moveShiftsTheEntriesBetweenBothPositions() {
+        TrackQueue queue = wrapped();
+
+        queue.move(0, 4);
+        assertEquals(List.of("c1", "c2", "c3", "c4", "c0", "c5"), ids(queue));
+
+        queue.move(5, 1);
+        assertEquals(List.of("c1", "c5", "c2", "c3", "c4", "c0"), ids(queue));
+
+        long version = queue.getVersion();
+        queue.move(2, 2);
+        assertEquals(version, queue.getVersion());
+        assertThrows(IndexOutOfBoundsException.class, () -> queue.move(0, 6));
+    }
+
+    @Test
+    void shuffleKeepsEveryEntry() {
+        TrackQueue queue = wrapped();
+        for (int i = 6; i < 30; i++) {
+            queue.addLast(entry("c" + i));
+        }
+        List<String> before = ids(queue);
+
+        queue.shuffle();
+
+        List<String> after = ids(queue);
+        assertEquals(before.size(), after.size());
+        assertEquals(before.stream().sorted().toList(), after.stream().sorted().toList());
+    }
+
+    @Test
+    void snapshotIsNotChangedByLaterWrites() {
+        TrackQueue queue = wrapped();
+        TrackQueue.Snapshot snapshot = queue.snapshot(null);
+        assertSame(snapshot, queue.snapshot(null));
+        assertEquals(queue.getVersion(), snapshot.getVersion());
+
+        queue.poll();
+        queue.addFirst(entry("z"));
+        queue.move(0, 3);
+        queue.removeAt(1);
+        queue.shuffle();
+
+        assertEquals(List.of("c0", "c1", "c2", "c3", "c4", "c5"), ids(snapshot));
+        TrackQueue.Snapshot next = queue.snapshot(null);
+        assertNotSame(snapshot, next);
+        assertNotEquals(snapshot.getVersion(), next.getVersion());
+        assertEquals(ids(queue), ids(next));
+    }
+
+    @Test
+    void snapshotShowsTheLeadBeforeTheQueue() {
+        TrackQueue queue = new TrackQueue();
+        queue.addLast(entry("a"));
+
+        TrackQueue.Snapshot snapshot = queue.snapshot(entry("lead"));
+        assertEquals(List.of("lead", "a"), ids(snapshot));
+        assertSame(entry("lead"), snapshot.getPending());
+        assertSame(entry("lead"), snapshot.first());
+        assertNotSame(snapshot, queue.snapshot(null));
+
+        TrackQueue.Snapshot empty = new TrackQueue().snapshot(null);
+        assertNull(empty.getPending());
+        assertThrows(NoSuchElementException.class, empty::first);
+    }
+
+    @Test
+    void clearLeavesTheSharedArrayToTheSnapshot() {
+        TrackQueue queue = wrapped();
+        TrackQueue.Snapshot snapshot = queue.snapshot(null);
+
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+
+        queue.addLast(entry("n"));
+        assertEquals(List.of("c0", "c1", "c2", "c3", "c4", "c5"), ids(snapshot));
+        assertEquals(List.of("n"), ids(queue));
+    }
+
+    /**
+     * Fila c0..c5 que começa perto do fim do array de 16 posições e continua no início.
+     */
+    private TrackQueue wrapped() {
+        TrackQueue queue = new TrackQueue();
+        for (int i = 0; i < 13; i++) {
+            queue.addLast(entry("x" + i));
+        }
+        for (int i = 0; i < 13; i++) {
+            queue.poll();
+        }
+        for (int i = 0; i < 6; i++) {
+            queue.addLast(entry("c" + i));
+        }
+        return queue;
+    }
+
+    private QueuedTrack entry(String id) {
+        return entries.computeIfAbsent(id,
+            key -> QueuedTrack.lazy(new SpotifyTrackInfo(key, "Title " + key, "Artist " + key, 180_000, null)));
+    }
+
+    private static List<String> ids(TrackQueue queue) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < queue.size(); i++) {
+            ids.add(queue.get(i).getSpotifyInfo().getId());
+        }
+        return ids;
+    }
+
+    private static List<String> ids(List<QueuedTrack> entries) {
+        return entries.stream().map(entry -> entry.getSpotifyInfo().getId()).toList();
+    }
+}
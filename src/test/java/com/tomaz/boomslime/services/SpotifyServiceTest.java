@@ -0,0 +1,121 @@
+package com.tomaz.boomslime.services;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * SpotifyService contra um IHttpManager falso no lugar da API do Spotify.
+ */
+class SpotifyServiceTest {
+    private static final int THREADS = 8;
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void concurrentUnauthorizedResponsesRefreshTheTokenOnce() throws Exception {
+        StubSpotify stub = new StubSpotify(THREADS);
+        SpotifyService service = new SpotifyService(new SpotifyApi.Builder()
+            .setClientId("id")
+            .setClientSecret("secret")
+            .setHttpManager(stub)
+            .build(), dataDir);
+        assertEquals(1, stub.tokenRequests.get());
+
+        // o token emitido no início passa a ser recusado
+        stub.validToken = "revoked";
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<SpotifyTrackInfo>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                String trackId = "track" + i;
+                results.add(pool.submit(() -> service.getTrackInfo("https://open.spotify.com/track/" + trackId)));
+            }
+
+            for (int i = 0; i < THREADS; i++) {
+                SpotifyTrackInfo track = results.get(i).get(10, TimeUnit.SECONDS);
+                assertNotNull(track);
+                assertEquals("track" + i, track.getId());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(2, stub.tokenRequests.get());
+    }
+
+    private static class StubSpotify implements IHttpManager {
+        private final AtomicInteger tokenRequests = new AtomicInteger();
+        private final CountDownLatch allRejected;
+        private volatile String validToken;
+
+        StubSpotify(int concurrentCalls) {
+            this.allRejected = new CountDownLatch(concurrentCalls);
+        }
+
+        @Override
+        public String post(URI uri, Header[] headers, HttpEntity body) {
+            String token = "token-" + tokenRequests.incrementAndGet();
+            validToken = token;
+            return "{\"access_token\":\"" + token + "\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+        }
+
+        @Override
+        public String get(URI uri, Header[] headers) throws UnauthorizedException {
+            if (!("Bearer " + validToken).equals(authorization(headers))) {
+                // todas as chamadas recebem o 401 antes de qualquer uma renovar
+                allRejected.countDown();
+                try {
+                    allRejected.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new UnauthorizedException("The access token expired");
+            }
+
+            String path = uri.getPath();
+            String id = path.substring(path.lastIndexOf('/') + 1);
+            return "{\"id\":\"" + id + "\",\"name\":\"Song " + id + "\",\"duration_ms\":1000,"
+                + "\"artists\":[{\"name\":\"Artist\"}],\"external_ids\":{\"isrc\":\"ISRC" + id + "\"}}";
+        }
+
+        @Override
+        public String put(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String delete(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException();
+        }
+
+        private static String authorization(Header[] headers) {
+            for (Header header : headers) {
+                if (header.getName().equalsIgnoreCase("Authorization")) {
+                    return header.getValue();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.tomaz.boomslime.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transições fechado → aberto → meio-aberto e de volta.
+ */
+class CircuitBreakerTest {
+    private static final long SHORT_OPEN_MS = 50;
+
+    @Test
+    void opensAfterTheThresholdOfConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60_000);
+
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        assertTrue(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.remainingOpenMillis() > 0);
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 60_000);
+
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        assertFalse(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenLetsOneTrialThroughAndSuccessCloses() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.remainingOpenMillis());
+    }
+
+    @Test
+    void failedTrialOpensAgainRightAway() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+
+        assertTrue(breaker.allowRequest());
+        // uma falha basta no meio-aberto, sem esperar o limite de novo
+        assertTrue(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void releasedTrialFreesTheSlotWithoutClosing() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+
+        assertTrue(breaker.allowRequest());
+        breaker.releaseTrial();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    /**
+     * Breaker que abriu e já passou do tempo aberto (a próxima chamada é o teste).
+     */
+    private static CircuitBreaker openBreaker() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, SHORT_OPEN_MS);
+        assertTrue(breaker.recordFailure());
+        Thread.sleep(SHORT_OPEN_MS + 20);
+        return breaker;
+    }
+}
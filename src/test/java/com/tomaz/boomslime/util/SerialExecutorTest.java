@@ -0,0 +1,34 @@
+package com.tomaz.boomslime.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SerialExecutorTest {
+
+    @Test
+    void callReturnsTheResultOfTheTask() {
+        SerialExecutor mailbox = new SerialExecutor("test");
+        assertEquals(42, mailbox.call(() -> 42));
+    }
+
+    @Test
+    void errorInTaskCompletesTheCallInsteadOfHanging() throws Exception {
+        SerialExecutor mailbox = new SerialExecutor("test");
+
+        CompletableFuture<Throwable> caller = CompletableFuture.supplyAsync(() -> assertThrows(CompletionException.class,
+            () -> mailbox.call(() -> {
+                throw new AssertionError("falha na tarefa");
+            })));
+
+        assertInstanceOf(AssertionError.class, caller.get(5, TimeUnit.SECONDS).getCause());
+        // a caixa continua atendendo depois do erro
+        assertEquals("ok", mailbox.call(() -> "ok"));
+    }
+}
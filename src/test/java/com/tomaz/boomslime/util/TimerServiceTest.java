@@ -0,0 +1,39 @@
+package com.tomaz.boomslime.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerServiceTest {
+
+    @Test
+    void failingPeriodicTaskKeepsRunning() throws Exception {
+        CountDownLatch runs = new CountDownLatch(3);
+        ScheduledFuture<?> task = TimerService.getInstance().scheduleAtFixedRate("test-falha", () -> {
+            runs.countDown();
+            throw new IllegalStateException("falha de teste");
+        }, 0, 10);
+
+        try {
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+        } finally {
+            task.cancel(false);
+        }
+    }
+
+    @Test
+    void cancelledTaskNeverRuns() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        ScheduledFuture<?> task = TimerService.getInstance().schedule("test-cancelada", runs::incrementAndGet, 100);
+
+        assertTrue(task.cancel(false));
+        Thread.sleep(200);
+        assertEquals(0, runs.get());
+    }
+}